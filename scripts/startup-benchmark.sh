@@ -0,0 +1,53 @@
+#!/usr/bin/env bash
+# Measures time-to-first-request of the plain boot jar against the AOT + CDS build.
+#
+#   ./gradlew bootJar && ./gradlew -Paot cdsArchive
+#   scripts/startup-benchmark.sh [runs]
+#
+# Needs a running MongoDB (docker-compose up mongo) and the usual FFMPEG_PATH/FFPROBE_PATH variables.
+set -euo pipefail
+
+RUNS=${1:-5}
+PORT=${PORT:-9199}
+JAVA=${JAVA:-java}
+ROOT=$(cd "$(dirname "$0")/.." && pwd)
+PLAIN_JAR=$(ls "$ROOT"/build/libs/*.jar | grep -v plain | head -n 1)
+CDS_DIR="$ROOT/build/cds"
+CDS_JAR="$CDS_DIR/$(basename "$PLAIN_JAR")"
+
+now_ms() {
+    date +%s%3N
+}
+
+measure() {
+    local label=$1
+    shift
+    local total=0
+    for run in $(seq 1 "$RUNS"); do
+        local started
+        started=$(now_ms)
+        "$JAVA" "$@" --server.port="$PORT" > /dev/null 2>&1 &
+        local pid=$!
+        until curl -sf "http://localhost:$PORT/jobs" > /dev/null; do
+            if ! kill -0 "$pid" 2> /dev/null; then
+                echo "$label: application exited before serving a request" >&2
+                exit 1
+            fi
+            sleep 0.05
+        done
+        local elapsed=$(( $(now_ms) - started ))
+        total=$(( total + elapsed ))
+        kill "$pid"
+        wait "$pid" 2> /dev/null || true
+        echo "$label run $run: ${elapsed} ms"
+    done
+    echo "$label average: $(( total / RUNS )) ms"
+}
+
+measure "jar" -jar "$PLAIN_JAR"
+
+if [[ -f "$CDS_DIR/application.jsa" ]]; then
+    (cd "$CDS_DIR" && measure "aot+cds" -XX:SharedArchiveFile=application.jsa -Dspring.aot.enabled=true -jar "$CDS_JAR")
+else
+    echo "No CDS archive in $CDS_DIR, run ./gradlew -Paot cdsArchive first" >&2
+fi
@@ -0,0 +1,38 @@
+package app.ImageTask.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.concurrent.Executors;
+
+/**
+ * Schedulers for blocking work. {@code ioScheduler} runs short blocking file and probe calls and can be
+ * backed by virtual threads ({@code scheduler.io.mode=virtual}) so bursts are never rejected;
+ * {@code encoderScheduler} is a bounded pool whose threads each hold one running ffmpeg encode.
+ */
+@Slf4j
+@Configuration
+public class SchedulerConfig {
+
+    public static final String IO_SCHEDULER = "ioScheduler";
+    public static final String ENCODER_SCHEDULER = "encoderScheduler";
+
+    @Bean(name = IO_SCHEDULER, destroyMethod = "dispose")
+    public Scheduler ioScheduler(@Value("${scheduler.io.mode:bounded-elastic}") String mode) {
+        if ("virtual".equalsIgnoreCase(mode)) {
+            log.info("Blocking I/O runs on virtual threads");
+            return Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(), "io-virtual");
+        }
+        return Schedulers.boundedElastic();
+    }
+
+    @Bean(name = ENCODER_SCHEDULER, destroyMethod = "dispose")
+    public Scheduler encoderScheduler(@Value("${scheduler.encoder.slots:2}") int slots,
+                                      @Value("${scheduler.encoder.queue-size:100}") int queueSize) {
+        return Schedulers.newBoundedElastic(slots, queueSize, "encoder");
+    }
+}
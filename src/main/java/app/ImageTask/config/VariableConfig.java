@@ -2,6 +2,10 @@ package app.ImageTask.config;
 
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.util.unit.DataSize;
+
+import java.time.Duration;
+import java.util.List;
 
 @Configuration
 public class VariableConfig {
@@ -11,4 +15,94 @@ public class VariableConfig {
 
     @Value("${ffprobe.path}")
     public String FFPROBE_PATH;
+
+    @Value("${upload.max-bytes:2147483648}")
+    public long UPLOAD_MAX_BYTES;
+
+    @Value("${upload.write-buffer-size:4MB}")
+    public DataSize UPLOAD_WRITE_BUFFER_SIZE;
+
+    @Value("${upload.pooled-write-buffers:64}")
+    public int UPLOAD_POOLED_WRITE_BUFFERS;
+
+    @Value("${process.output-lines:200}")
+    public int PROCESS_OUTPUT_LINES;
+
+    @Value("${scheduler.encoder.slots:2}")
+    public int ENCODER_SLOTS;
+
+    @Value("${encoding.chunked.enabled:false}")
+    public boolean CHUNKED_ENCODING_ENABLED;
+
+    @Value("${encoding.chunked.chunks:${scheduler.encoder.slots:2}}")
+    public int CHUNKED_ENCODING_CHUNKS;
+
+    @Value("${encoding.chunked.min-duration-seconds:120}")
+    public double CHUNKED_ENCODING_MIN_SECONDS;
+
+    @Value("${encoding.presets:medium,fast,veryfast,ultrafast}")
+    public List<String> ENCODING_PRESETS;
+
+    @Value("${preview.format:gif}")
+    public String PREVIEW_FORMAT;
+
+    @Value("${preview.max-duration-seconds:10}")
+    public int PREVIEW_MAX_SECONDS;
+
+    @Value("${preview.max-fps:12}")
+    public int PREVIEW_MAX_FPS;
+
+    @Value("${preview.max-width:480}")
+    public int PREVIEW_MAX_WIDTH;
+
+    @Value("${hls.segment-seconds:6}")
+    public int HLS_SEGMENT_SECONDS;
+
+    @Value("${hls.cache.dir:videos/hls_cache}")
+    public String HLS_CACHE_DIR;
+
+    @Value("${hls.cache.max-bytes:2147483648}")
+    public long HLS_CACHE_MAX_BYTES;
+
+    @Value("${hls.cache.eviction-grace:30s}")
+    public Duration HLS_CACHE_EVICTION_GRACE;
+
+    @Value("${keyframe-index.scenes.enabled:true}")
+    public boolean KEYFRAME_INDEX_SCENES_ENABLED;
+
+    @Value("${keyframe-index.scene-threshold:0.4}")
+    public double KEYFRAME_INDEX_SCENE_THRESHOLD;
+
+    @Value("${status.heartbeat:15s}")
+    public Duration STATUS_HEARTBEAT;
+
+    @Value("${idempotency.ttl:24h}")
+    public Duration IDEMPOTENCY_TTL;
+
+    @Value("${idempotency.in-progress-lease:2h}")
+    public Duration IDEMPOTENCY_LEASE;
+
+    @Value("${tiering.enabled:false}")
+    public boolean TIERING_ENABLED;
+
+    @Value("${tiering.cold-dir:cold_storage}")
+    public String TIERING_COLD_DIR;
+
+    @Value("${tiering.cold-after:7d}")
+    public Duration TIERING_COLD_AFTER;
+
+    @Value("${tiering.access-resolution:1h}")
+    public Duration TIERING_ACCESS_RESOLUTION;
+
+    @Value("${tiering.max-per-scan:50}")
+    public int TIERING_MAX_PER_SCAN;
+
+    @Value("${reclamation.batch-size:20}")
+    public int RECLAMATION_BATCH_SIZE;
+
+    @Value("${reclamation.batch-pause:200ms}")
+    public Duration RECLAMATION_BATCH_PAUSE;
+
+    @Value("${reclamation.orphan-min-age:1h}")
+    public Duration RECLAMATION_ORPHAN_MIN_AGE;
 }
@@ -0,0 +1,29 @@
+package app.ImageTask.controller;
+
+import app.ImageTask.domain.dto.JobDto;
+import app.ImageTask.service.JobService;
+import io.swagger.v3.oas.annotations.Operation;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+@RestController
+@RequestMapping("/jobs")
+@RequiredArgsConstructor
+public class JobController {
+
+    private final JobService jobService;
+
+    @GetMapping
+    public Flux<JobDto> getJobs() {
+        return jobService.getJobs();
+    }
+
+    @Operation(summary = "Отмена задачи: процесс ffmpeg останавливается, частичные результаты удаляются")
+    @DeleteMapping("/{id}")
+    public Mono<ResponseEntity<JobDto>> cancelJob(@PathVariable String id) {
+        return jobService.cancel(id).map(ResponseEntity::ok);
+    }
+}
@@ -1,16 +1,27 @@
 package app.ImageTask.controller;
 
 import  app.ImageTask.domain.dto.CutTimeDto;
+import app.ImageTask.domain.dto.PreviewDto;
 import app.ImageTask.domain.dto.SizeDto;
 import app.ImageTask.domain.dto.VideoDto;
+import app.ImageTask.domain.dto.VideoStatusDto;
+import app.ImageTask.domain.enums.JobOperation;
+import app.ImageTask.service.AdmissionService;
+import app.ImageTask.service.IdempotencyService;
+import app.ImageTask.service.TieringService;
 import app.ImageTask.service.VideoService;
+import app.ImageTask.service.VideoStatusService;
 import io.swagger.v3.oas.annotations.Operation;
 import jakarta.validation.Valid;
 import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.codec.multipart.PartEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
 import java.util.Map;
@@ -21,16 +32,30 @@ import java.util.Map;
 public class VideoController {
 
     private final VideoService videoService;
+    private final AdmissionService admissionService;
+    private final VideoStatusService videoStatusService;
+    private final IdempotencyService idempotencyService;
+    private final TieringService tieringService;
 
+    /*Processing endpoints accept it; identical requests without it are still coalesced while one runs*/
+    private static final String IDEMPOTENCY_KEY = "Idempotency-Key";
+
+    /*Multipart form with a "file" part, read as a stream of part events so it is checked as it arrives*/
     @PostMapping(consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
-    public Mono<ResponseEntity<Map<String, String>>> uploadVideo(@RequestPart("file") FilePart file) {
-        return videoService.saveVideo(file);
+    public Mono<ResponseEntity<Map<String, String>>> uploadVideo(@RequestHeader(value = HttpHeaders.CONTENT_LENGTH, required = false) Long contentLength,
+                                                                 @RequestBody Flux<PartEvent> parts) {
+        return videoService.saveVideo(contentLength, parts);
     }
 
     @PatchMapping("/{id}")
     public Mono<ResponseEntity<Map<String, Boolean>>> changeVideSize(@Valid @RequestBody SizeDto sizeDto,
-                                                                     @PathVariable String id) {
-        return videoService.changeVideoSize(sizeDto, id);
+                                                                     @PathVariable String id,
+                                                                     @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return idempotencyService.execute(idempotencyKey, id, JobOperation.RESIZE,
+                Map.of("width", String.valueOf(sizeDto.getWidth()), "height", String.valueOf(sizeDto.getHeight())),
+                () -> tieringService.ensureHot(id)
+                        .then(admissionService.admit(id, JobOperation.RESIZE,
+                                videoService.changeVideoSize(sizeDto, id))));
     }
 
     @GetMapping("/{id}")
@@ -38,29 +63,53 @@ public class VideoController {
         return videoService.getVideo(id);
     }
 
+    @Operation(summary = "Статус обработки видео в виде server-sent events: текущее состояние, затем каждое изменение")
+    @GetMapping(value = "/{id}/status", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<VideoStatusDto>> watchStatus(@PathVariable String id) {
+        return videoStatusService.statusEvents(id);
+    }
+
     @DeleteMapping("/{id}")
     public Mono<ResponseEntity<Map<String, Boolean>>> deleteVideo(@PathVariable String id) {
         return videoService.deleteVideo(id);
     }
 
+    @Operation(summary = "Скачивание оригинала или, с параметром rendition, одного из результатов обработки")
     @GetMapping("/download/{id}")
-    public Mono<ResponseEntity<?>> downloadVideo(@PathVariable String id) {
-        return videoService.downloadVideo(id);
+    public Mono<ResponseEntity<?>> downloadVideo(@PathVariable String id,
+                                                 @RequestParam(value = "rendition", required = false) String renditionId) {
+        return videoService.downloadVideo(id, renditionId);
     }
 
+    @Operation(summary = "Анимированное превью (gif или webp) части видео; длительность, fps и ширина ограничены настройками preview.*")
     @PatchMapping("/toGif/{id}")
-    public Mono<ResponseEntity<Map<String, Boolean>>> toGif(@PathVariable String id) {
-        return videoService.toGif(id);
+    public Mono<ResponseEntity<Map<String, Boolean>>> toGif(@PathVariable String id,
+                                                            @RequestBody(required = false) @Valid PreviewDto previewDto,
+                                                            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        /*The fingerprint is the resolved range, so requests that resolve to the same preview share it*/
+        return tieringService.ensureHot(id)
+                .then(videoService.planPreview(id, previewDto))
+                .flatMap(spec -> idempotencyService.execute(idempotencyKey, id, JobOperation.GIF, spec.params(),
+                        () -> admissionService.admit(id, JobOperation.GIF, videoService.toGif(id, spec))));
     }
 
     @PatchMapping("/cut/{id}")
-    public Mono<ResponseEntity<Map<String, Boolean>>> cutByTime(@PathVariable String id, @RequestBody @Valid CutTimeDto cutTimeDto) {
-        return videoService.cutByTime(id, cutTimeDto);
+    public Mono<ResponseEntity<Map<String, Boolean>>> cutByTime(@PathVariable String id, @RequestBody @Valid CutTimeDto cutTimeDto,
+                                                                @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return idempotencyService.execute(idempotencyKey, id, JobOperation.CUT,
+                Map.of("start", cutTimeDto.getStart(), "end", cutTimeDto.getEnd()),
+                () -> tieringService.ensureHot(id)
+                        .then(admissionService.admit(id, JobOperation.CUT,
+                                videoService.cutByTime(id, cutTimeDto))));
     }
 
     @PatchMapping("/toHLS/{id}")
-    public Mono<ResponseEntity<Map<String, Boolean>>> toHLS(@PathVariable String id) {
-        return videoService.toHLS(id);
+    public Mono<ResponseEntity<Map<String, Boolean>>> toHLS(@PathVariable String id,
+                                                            @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return idempotencyService.execute(idempotencyKey, id, JobOperation.HLS, Map.of(),
+                () -> tieringService.ensureHot(id)
+                        .then(admissionService.admit(id, JobOperation.HLS,
+                                videoService.toHLS(id))));
     }
 
     @Operation(summary = "Доступные варианты битрейта - 800k 1200k 2400k 4800k 7200k")
@@ -69,9 +118,31 @@ public class VideoController {
         return videoService.getHlsPlaylist(id, bitrate);
     }
 
+    @Operation(summary = "HLS по запросу: сегменты кодируются при первом обращении и кэшируются на диске")
+    @GetMapping("/hls/{id}/master.m3u8")
+    public Mono<ResponseEntity<String>> getLazyHlsMaster(@PathVariable String id) {
+        return videoService.getLazyHlsMasterPlaylist(id);
+    }
+
+    @GetMapping("/hls/{id}/{bitrate}/index.m3u8")
+    public Mono<ResponseEntity<String>> getLazyHlsPlaylist(@PathVariable String id, @PathVariable String bitrate) {
+        return videoService.getLazyHlsMediaPlaylist(id, bitrate);
+    }
+
+    @GetMapping("/hls/{id}/{bitrate}/segment_{index}.ts")
+    public Mono<ResponseEntity<Resource>> getLazyHlsSegment(@PathVariable String id, @PathVariable String bitrate,
+                                                          @PathVariable int index,
+                                                          @RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+        return videoService.getLazyHlsSegment(id, bitrate, index, ifNoneMatch);
+    }
+
     @Operation(summary = "Изменение кодека видео, доступные варианты - libx264 libx265 libvpx-vp9 libxvid")
     @PatchMapping("/change_codec/{id}/{codec}")
-    public Mono<ResponseEntity<Map<String, Boolean>>> changeCodec(@PathVariable String id, @PathVariable String codec){
-        return videoService.transcodeVideo(id, codec);
+    public Mono<ResponseEntity<Map<String, Boolean>>> changeCodec(@PathVariable String id, @PathVariable String codec,
+                                                                  @RequestHeader(value = IDEMPOTENCY_KEY, required = false) String idempotencyKey) {
+        return idempotencyService.execute(idempotencyKey, id, JobOperation.TRANSCODE, Map.of("codec", codec),
+                () -> tieringService.ensureHot(id)
+                        .then(admissionService.admit(id, JobOperation.TRANSCODE,
+                                videoService.transcodeVideo(id, codec))));
     }
 }
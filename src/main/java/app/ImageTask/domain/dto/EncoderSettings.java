@@ -0,0 +1,28 @@
+package app.ImageTask.domain.dto;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Encoder options chosen for one job: {@code preset} is an x264/x265 preset, null for codecs without
+ * presets; {@code maxBitRate} caps the video bitrate in bits per second, 0 for no cap.
+ */
+public record EncoderSettings(String preset, long maxBitRate) {
+
+    public static final EncoderSettings DEFAULT = new EncoderSettings(null, 0);
+
+    public List<String> args() {
+        List<String> args = new ArrayList<>();
+        if (preset != null) {
+            args.add("-preset");
+            args.add(preset);
+        }
+        if (maxBitRate > 0) {
+            args.add("-maxrate");
+            args.add(maxBitRate / 1000 + "k");
+            args.add("-bufsize");
+            args.add(2 * maxBitRate / 1000 + "k");
+        }
+        return args;
+    }
+}
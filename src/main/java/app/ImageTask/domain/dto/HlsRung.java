@@ -0,0 +1,22 @@
+package app.ImageTask.domain.dto;
+
+/**
+ * One rendition of the HLS bitrate ladder, e.g. {@code 800k} at 640x360.
+ */
+public record HlsRung(String bitrate, int width, int height) {
+
+    public long bandwidth() {
+        String value = bitrate.toLowerCase();
+        if (value.endsWith("k")) {
+            return Long.parseLong(value.substring(0, value.length() - 1)) * 1000;
+        }
+        if (value.endsWith("m")) {
+            return Long.parseLong(value.substring(0, value.length() - 1)) * 1000_000;
+        }
+        return Long.parseLong(value);
+    }
+
+    public String scale() {
+        return width + ":" + height;
+    }
+}
@@ -0,0 +1,20 @@
+package app.ImageTask.domain.dto;
+
+import app.ImageTask.domain.enums.JobOperation;
+import lombok.*;
+
+import java.time.Instant;
+
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class JobDto {
+
+    private String id;
+    private String videoId;
+    private JobOperation operation;
+    private double estimatedSeconds;
+    private Instant startedAt;
+}
@@ -0,0 +1,7 @@
+package app.ImageTask.domain.dto;
+
+/**
+ * Probed properties of a source file; {@code bitRate} is in bits per second, 0 when unknown.
+ */
+public record MediaInfo(double durationSeconds, int width, int height, long bitRate) {
+}
@@ -0,0 +1,37 @@
+package app.ImageTask.domain.dto;
+
+import jakarta.validation.constraints.Max;
+import jakarta.validation.constraints.Min;
+import jakarta.validation.constraints.Pattern;
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Optional preview settings; every field may be omitted and none can exceed the configured
+ * {@code preview.*} limits.
+ */
+@Getter
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class PreviewDto {
+
+    @Pattern(regexp = "gif|webp", message = "Invalid preview format. Use gif or webp.")
+    private String format;
+
+    @Pattern(regexp = "\\d{2}:\\d{2}:\\d{2}", message = "Invalid time format. Use HH:MM:SS.")
+    private String start;
+
+    @Min(1)
+    private Integer durationSeconds;
+
+    @Min(1)
+    private Integer fps;
+
+    @Min(20)
+    @Max(3000)
+    private Integer width;
+
+}
@@ -0,0 +1,18 @@
+package app.ImageTask.domain.dto;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A preview resolved against the source: the range of the source it covers and the output it encodes to.
+ */
+public record PreviewSpec(String format, double startSeconds, double durationSeconds, int fps, int width) {
+
+    public Map<String, String> params() {
+        return Map.of("format", format,
+                "start", String.format(Locale.ROOT, "%.3f", startSeconds),
+                "durationSeconds", String.format(Locale.ROOT, "%.3f", durationSeconds),
+                "fps", String.valueOf(fps),
+                "width", String.valueOf(width));
+    }
+}
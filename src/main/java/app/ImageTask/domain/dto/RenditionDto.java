@@ -0,0 +1,24 @@
+package app.ImageTask.domain.dto;
+
+import app.ImageTask.domain.enums.JobOperation;
+import lombok.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class RenditionDto {
+
+    private String id;
+    private JobOperation operation;
+    private Map<String, String> params;
+    private String format;
+    private Long sizeBytes;
+    private Instant createdAt;
+    private List<HlsRung> ladder;
+}
@@ -1,7 +1,10 @@
 package app.ImageTask.domain.dto;
 
+import app.ImageTask.domain.enums.StorageTier;
 import lombok.*;
 
+import java.util.List;
+
 @Getter
 @Setter
 @Builder
@@ -14,5 +17,8 @@ public class VideoDto {
     private String format;
     private Boolean processing;
     private Boolean processingSuccess;
+    private String jobId;
+    private List<RenditionDto> renditions;
+    private StorageTier tier;
 
 }
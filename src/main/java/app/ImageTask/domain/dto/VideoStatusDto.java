@@ -0,0 +1,18 @@
+package app.ImageTask.domain.dto;
+
+import lombok.*;
+
+@Getter
+@Setter
+@Builder(toBuilder = true)
+@AllArgsConstructor
+@NoArgsConstructor
+@EqualsAndHashCode
+public class VideoStatusDto {
+
+    private String id;
+    private Boolean processing;
+    private Boolean processingSuccess;
+    private String jobId;
+    private boolean deleted;
+}
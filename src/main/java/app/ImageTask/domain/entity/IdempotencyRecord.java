@@ -0,0 +1,28 @@
+package app.ImageTask.domain.entity;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.time.Instant;
+import java.util.Map;
+
+/*Outcome of a processing request sent with an Idempotency-Key; removed by a TTL index once expiresAt passes*/
+@Document(collection = "idempotency_keys")
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class IdempotencyRecord {
+
+    /*SHA-256 of the client's key, so keys of any length fit the _id*/
+    @Id
+    private String key;
+    /*Video, operation and parameters of the request the key was first used for*/
+    private String fingerprint;
+    private boolean completed;
+    private Integer httpStatus;
+    private Map<String, Boolean> body;
+    private Instant expiresAt;
+}
@@ -0,0 +1,28 @@
+package app.ImageTask.domain.entity;
+
+import app.ImageTask.domain.dto.HlsRung;
+import app.ImageTask.domain.enums.JobOperation;
+import lombok.*;
+
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+/*Output of one processing job, stored next to the untouched original and embedded in its Video document*/
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class Rendition {
+
+    private String id;
+    private JobOperation operation;
+    private Map<String, String> params;
+    private String format;
+    private String path;
+    private Long sizeBytes;
+    private Instant createdAt;
+    /*Rungs an HLS rendition was encoded with, stream_<i> holds rung i; null for other renditions*/
+    private List<HlsRung> ladder;
+}
@@ -1,9 +1,13 @@
 package app.ImageTask.domain.entity;
 
+import app.ImageTask.domain.enums.StorageTier;
 import lombok.*;
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 
+import java.time.Instant;
+import java.util.List;
+
 @Document(collection = "videos")
 @Getter
 @Setter
@@ -19,4 +23,19 @@ public class Video {
     private String filePath;
     private Boolean processing;
     private Boolean processingSuccess;
+    private Double durationSeconds;
+    private Integer width;
+    private Integer height;
+    private Long bitRate;
+    /*The most recently started job still running on the video*/
+    private String jobId;
+    /*Every job running on the video; it keeps processing until the last one finishes*/
+    private List<String> jobIds;
+    /*Outputs of processing jobs; the file at filePath is the original and is never rewritten*/
+    private List<Rendition> renditions;
+    /*Every file or directory under videos/ the video owns, deleted together with it*/
+    private List<String> artifacts;
+    private StorageTier tier;
+    /*Recorded at most once per tiering.access-resolution; drives migration to the cold tier*/
+    private Instant lastAccessedAt;
 }
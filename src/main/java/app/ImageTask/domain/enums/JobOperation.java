@@ -0,0 +1,20 @@
+package app.ImageTask.domain.enums;
+
+public enum JobOperation {
+    RESIZE("resize"),
+    GIF("gif"),
+    CUT("cut"),
+    HLS("hls"),
+    TRANSCODE("transcode");
+
+    private final String key;
+
+    JobOperation(String key) {
+        this.key = key;
+    }
+
+    /*Key used in configuration properties, e.g. ffmpeg.timeout.resize*/
+    public String key() {
+        return key;
+    }
+}
@@ -0,0 +1,7 @@
+package app.ImageTask.domain.enums;
+
+/*Where the files of a video live; videos stored before tiering existed have no tier and are hot*/
+public enum StorageTier {
+    HOT,
+    COLD
+}
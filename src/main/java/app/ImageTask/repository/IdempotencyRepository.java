@@ -0,0 +1,17 @@
+package app.ImageTask.repository;
+
+import app.ImageTask.domain.entity.IdempotencyRecord;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.data.mongodb.repository.Update;
+import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Mono;
+
+import java.time.Instant;
+import java.util.Map;
+
+@Repository
+public interface IdempotencyRepository extends ReactiveMongoRepository<IdempotencyRecord, String> {
+
+    @Update("{ '$set': { 'completed': true, 'httpStatus': ?1, 'body': ?2, 'expiresAt': ?3 } }")
+    Mono<Long> findAndCompleteByKey(String key, int httpStatus, Map<String, Boolean> body, Instant expiresAt);
+}
@@ -1,8 +1,49 @@
 package app.ImageTask.repository;
 
+import app.ImageTask.domain.entity.Rendition;
 import app.ImageTask.domain.entity.Video;
+import app.ImageTask.domain.enums.StorageTier;
+import org.springframework.data.mongodb.repository.Query;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.data.mongodb.repository.Update;
 import org.springframework.stereotype.Repository;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import java.time.Instant;
+
+/*Jobs of one video run concurrently, so they change their fields with atomic updates instead of saving the whole document*/
 @Repository
-public interface VideoRepository extends ReactiveMongoRepository<Video, String> {}
+public interface VideoRepository extends ReactiveMongoRepository<Video, String> {
+
+    @Update("{ '$push': { 'renditions': ?1, 'artifacts': ?2 } }")
+    Mono<Long> findAndPushRenditionById(String id, Rendition rendition, String artifact);
+
+    @Update("{ '$set': { 'processing': true, 'processingSuccess': null, 'jobId': ?1 }, '$addToSet': { 'jobIds': ?1 } }")
+    Mono<Long> findAndStartJobById(String id, String jobId);
+
+    /*
+     * Only a job still running on the video may finish it. The video keeps processing while other jobs run,
+     * and jobId falls back to the latest of them; processingSuccess is the outcome of the last job to finish.
+     */
+    @Update(pipeline = {
+            "{ '$set': { 'jobIds': { '$filter': { 'input': { '$ifNull': [ '$jobIds', [] ] }, 'cond': { '$ne': [ '$$this', ?1 ] } } } } }",
+            "{ '$set': { 'processing': { '$gt': [ { '$size': '$jobIds' }, 0 ] }, 'processingSuccess': ?2, "
+                    + "'jobId': { '$ifNull': [ { '$arrayElemAt': [ '$jobIds', -1 ] }, null ] } } }"
+    })
+    Mono<Long> findAndFinishJobByIdAndJobIds(String id, String jobId, Boolean processingSuccess);
+
+    @Update("{ '$set': { 'durationSeconds': ?1, 'width': ?2, 'height': ?3, 'bitRate': ?4 } }")
+    Mono<Long> findAndSetMediaInfoById(String id, Double durationSeconds, Integer width, Integer height, Long bitRate);
+
+    /*Hot videos not read since cutoff; videos from before access tracking count as unread*/
+    @Query("{ 'tier': { '$ne': 'COLD' }, 'processing': { '$ne': true }, '$or': [ { 'lastAccessedAt': { '$lt': ?0 } }, { 'lastAccessedAt': null } ] }")
+    Flux<Video> findColdCandidates(Instant cutoff);
+
+    /*Moves a video to another tier only if nobody read it or started a job on it since the migration began*/
+    @Update("{ '$set': { 'tier': ?3 } }")
+    Mono<Long> findAndSetTierByIdAndLastAccessedAtAndProcessingNot(String id, Instant lastAccessedAt, Boolean processing, StorageTier tier);
+
+    @Update("{ '$set': { 'tier': ?1 } }")
+    Mono<Long> findAndSetTierById(String id, StorageTier tier);
+}
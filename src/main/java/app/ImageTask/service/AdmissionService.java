@@ -0,0 +1,167 @@
+package app.ImageTask.service;
+
+import app.ImageTask.config.SchedulerConfig;
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.domain.dto.JobDto;
+import app.ImageTask.domain.entity.Video;
+import app.ImageTask.domain.enums.JobOperation;
+import app.ImageTask.repository.VideoRepository;
+import app.ImageTask.util.ProcessRunner;
+import app.ImageTask.util.exception.ResourceNotFoundException;
+import app.ImageTask.util.exception.TooManyRequestsException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Decides whether a processing request is accepted before any work starts. A request is rejected with
+ * 429 and a Retry-After estimate when the operation already runs {@code admission.max-jobs.<operation>}
+ * jobs, too many encodes wait for a slot, scratch disk can't hold the expected output, or the estimated
+ * backlog exceeds {@code admission.max-wait-seconds.<operation>}. Every limit falls back to its
+ * {@code .default} value.
+ * <p>
+ * The check reserves capacity in the same step, so a burst of requests can't all pass against the same
+ * free capacity. A reservation counts like a running job until {@link JobService#run} registers the job,
+ * or the request ends before that.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class AdmissionService {
+
+    /*Job cost is expressed in encode seconds of a 1080p source*/
+    private static final double REFERENCE_PIXELS = 1920.0 * 1080.0;
+    private static final long MAX_RETRY_AFTER_SECONDS = 3600;
+
+    private final VideoRepository videoRepository;
+    private final MediaInfoService mediaInfoService;
+    private final JobService jobService;
+    private final ProcessRunner processRunner;
+    private final VariableConfig variableConfig;
+    private final Environment environment;
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+
+    private final Set<Reservation> reservations = ConcurrentHashMap.newKeySet();
+
+    /*Runs work if the request is admitted, holding a reservation until its job is registered*/
+    public <T> Mono<T> admit(String videoId, JobOperation operation, Mono<T> work) {
+        return Mono.usingWhen(reserve(videoId, operation),
+                reservation -> work.contextWrite(context -> context.put(JobService.ADMISSION_RESERVATION,
+                        (Runnable) () -> reservations.remove(reservation))),
+                reservation -> Mono.fromRunnable(() -> reservations.remove(reservation)));
+    }
+
+    private Mono<Reservation> reserve(String videoId, JobOperation operation) {
+        return videoRepository.findById(videoId)
+                .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")))
+                .flatMap(mediaInfoService::ensureMediaInfo)
+                .flatMap(video -> Mono.fromCallable(() -> {
+                            Path source = Paths.get(video.getFilePath());
+                            long sourceBytes = Files.isRegularFile(source) ? Files.size(source) : 0L;
+                            long freeBytes = Files.getFileStore(source.toAbsolutePath().getParent()).getUsableSpace();
+                            return new DiskState(sourceBytes, freeBytes);
+                        })
+                        .subscribeOn(ioScheduler)
+                        .map(disk -> checkAndReserve(video, operation, disk)));
+    }
+
+    public double estimateSeconds(Video video, JobOperation operation) {
+        if (video.getDurationSeconds() == null) {
+            return 0;
+        }
+        double pixels = video.getWidth() != null && video.getHeight() != null
+                ? (double) video.getWidth() * video.getHeight()
+                : REFERENCE_PIXELS;
+        // a preview decodes at most preview.max-duration-seconds of the source
+        double seconds = operation == JobOperation.GIF
+                ? Math.min(video.getDurationSeconds(), variableConfig.PREVIEW_MAX_SECONDS)
+                : video.getDurationSeconds();
+        return seconds * pixels / REFERENCE_PIXELS * limit("cost-factor", operation, Double.class, 1.0);
+    }
+
+    /*Synchronized so that concurrent requests see each other's reservations*/
+    private synchronized Reservation checkAndReserve(Video video, JobOperation operation, DiskState disk) {
+        List<JobDto> jobs = jobService.runningJobs();
+        Instant now = Instant.now();
+        int slots = Math.max(1, variableConfig.ENCODER_SLOTS);
+        double backlogSeconds = jobs.stream().mapToDouble(job -> remainingSeconds(job, now)).sum()
+                + reservations.stream().mapToDouble(Reservation::estimatedSeconds).sum();
+        long backlogRetryAfter = retryAfter(backlogSeconds / slots);
+
+        List<JobDto> sameOperation = jobs.stream().filter(job -> job.getOperation() == operation).toList();
+        long reservedSameOperation = reservations.stream().filter(reservation -> reservation.operation() == operation).count();
+        if (sameOperation.size() + reservedSameOperation >= limit("max-jobs", operation, Integer.class, 4)) {
+            double nextFree = sameOperation.stream().mapToDouble(job -> remainingSeconds(job, now)).min().orElse(0);
+            throw new TooManyRequestsException("Too many " + operation.key() + " jobs running", retryAfter(nextFree));
+        }
+
+        if (processRunner.queuedEncodes() + reservations.size() >= limit("max-queue", operation, Integer.class, 8)) {
+            throw new TooManyRequestsException("Encoder queue is full", backlogRetryAfter);
+        }
+
+        long requiredBytes = limit("min-free-bytes", operation, Long.class, 1024L * 1024 * 1024)
+                + (long) (disk.sourceBytes() * limit("output-factor", operation, Double.class, 1.0));
+        if (disk.freeBytes() < requiredBytes) {
+            throw new TooManyRequestsException("Not enough free scratch disk space", backlogRetryAfter);
+        }
+
+        double cost = estimateSeconds(video, operation);
+        if ((backlogSeconds + cost) / slots > limit("max-wait-seconds", operation, Double.class, 1800.0)) {
+            throw new TooManyRequestsException("Estimated processing backlog is too long", backlogRetryAfter);
+        }
+        log.debug("Admitted {} for video {}, estimated {} s, backlog {} s", operation, video.getId(), cost, backlogSeconds);
+        Reservation reservation = new Reservation(operation, cost);
+        reservations.add(reservation);
+        return reservation;
+    }
+
+    private double remainingSeconds(JobDto job, Instant now) {
+        double elapsed = Duration.between(job.getStartedAt(), now).toMillis() / 1000.0;
+        return Math.max(0, job.getEstimatedSeconds() - elapsed);
+    }
+
+    private long retryAfter(double seconds) {
+        return Math.min(MAX_RETRY_AFTER_SECONDS, Math.max(1, (long) Math.ceil(seconds)));
+    }
+
+    private <T> T limit(String name, JobOperation operation, Class<T> type, T fallback) {
+        T defaultValue = environment.getProperty("admission." + name + ".default", type, fallback);
+        return environment.getProperty("admission." + name + "." + operation.key(), type, defaultValue);
+    }
+
+    private record DiskState(long sourceBytes, long freeBytes) {
+    }
+
+    /*Compared by identity, so equal reservations of concurrent requests are kept apart*/
+    private static final class Reservation {
+        private final JobOperation operation;
+        private final double estimatedSeconds;
+
+        private Reservation(JobOperation operation, double estimatedSeconds) {
+            this.operation = operation;
+            this.estimatedSeconds = estimatedSeconds;
+        }
+
+        private JobOperation operation() {
+            return operation;
+        }
+
+        private double estimatedSeconds() {
+            return estimatedSeconds;
+        }
+    }
+}
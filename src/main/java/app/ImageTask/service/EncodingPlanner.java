@@ -0,0 +1,79 @@
+package app.ImageTask.service;
+
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.domain.dto.EncoderSettings;
+import app.ImageTask.domain.dto.HlsRung;
+import app.ImageTask.domain.entity.Video;
+import app.ImageTask.util.FmmpegUtil;
+import app.ImageTask.util.ProcessRunner;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Chooses encoder settings from the probed source and the current encoder load. The HLS ladder keeps only
+ * rungs that don't exceed the source in pixels and caps their bitrate at the source bitrate, since a
+ * rendition can't look better than its input. The x264/x265 preset moves one step along
+ * {@code encoding.presets} for every full round of encodes waiting for a slot, trading compression for
+ * throughput when the queue is deep. Videos without media info get the default ladder and no cap.
+ */
+@Service
+@RequiredArgsConstructor
+public class EncodingPlanner {
+
+    private static final Set<String> PRESET_CODECS = Set.of("libx264", "libx265");
+
+    private final ProcessRunner processRunner;
+    private final VariableConfig variableConfig;
+
+    public EncoderSettings settingsFor(Video video, String codec) {
+        return new EncoderSettings(PRESET_CODECS.contains(codec) ? preset() : null, sourceBitRate(video));
+    }
+
+    public List<HlsRung> ladderFor(Video video) {
+        if (video.getWidth() == null || video.getHeight() == null) {
+            return FmmpegUtil.DEFAULT_HLS_LADDER;
+        }
+        long sourcePixels = (long) video.getWidth() * video.getHeight();
+        long sourceBitRate = sourceBitRate(video);
+
+        List<HlsRung> ladder = new ArrayList<>();
+        long previousBitRate = 0;
+        for (HlsRung rung : FmmpegUtil.DEFAULT_HLS_LADDER) {
+            if ((long) rung.width() * rung.height() > sourcePixels) {
+                break;
+            }
+            long bitRate = capped(rung.bandwidth(), sourceBitRate);
+            // a rung at the previous bitrate only adds pixels, not quality
+            if (bitRate <= previousBitRate) {
+                continue;
+            }
+            ladder.add(bitRate == rung.bandwidth() ? rung : new HlsRung(bitRate / 1000 + "k", rung.width(), rung.height()));
+            previousBitRate = bitRate;
+        }
+        if (ladder.isEmpty()) {
+            // the source is smaller than the lowest rung: a single rung at the source size
+            HlsRung lowest = FmmpegUtil.DEFAULT_HLS_LADDER.get(0);
+            ladder.add(new HlsRung(capped(lowest.bandwidth(), sourceBitRate) / 1000 + "k",
+                    video.getWidth() / 2 * 2, video.getHeight() / 2 * 2));
+        }
+        return List.copyOf(ladder);
+    }
+
+    private String preset() {
+        List<String> presets = variableConfig.ENCODING_PRESETS;
+        int rounds = processRunner.queuedEncodes() / Math.max(1, variableConfig.ENCODER_SLOTS);
+        return presets.get(Math.min(rounds, presets.size() - 1));
+    }
+
+    private long sourceBitRate(Video video) {
+        return video.getBitRate() == null ? 0 : video.getBitRate();
+    }
+
+    private long capped(long bitRate, long sourceBitRate) {
+        return sourceBitRate > 0 ? Math.min(bitRate, sourceBitRate) : bitRate;
+    }
+}
@@ -0,0 +1,165 @@
+package app.ImageTask.service;
+
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.domain.entity.IdempotencyRecord;
+import app.ImageTask.domain.enums.JobOperation;
+import app.ImageTask.repository.IdempotencyRepository;
+import app.ImageTask.util.exception.IdempotencyConflictException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Deduplicates processing requests. Identical requests (same video, operation and parameters) that arrive
+ * while one is running attach to its result instead of starting another ffmpeg run; the work keeps running
+ * when the first client disconnects, since its rendition is stored anyway. Requests with an
+ * {@code Idempotency-Key} header also record their outcome in Mongo, so a retry on any node gets the
+ * original response. Errors and 5xx outcomes release the key, so the retry runs the work again. The outcome
+ * is recorded by the shared run itself, so it is stored even when every client has disconnected.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class IdempotencyService {
+
+    public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+
+    private final IdempotencyRepository idempotencyRepository;
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final VariableConfig variableConfig;
+
+    private final Map<String, InFlight> inFlight = new ConcurrentHashMap<>();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void createExpiryIndex() {
+        reactiveMongoTemplate.indexOps(IdempotencyRecord.class)
+                .ensureIndex(new Index().on("expiresAt", Sort.Direction.ASC).expire(Duration.ZERO))
+                .subscribe(name -> log.info("Idempotency key expiry index {} ready", name),
+                        e -> log.warn("Failed to create the idempotency key expiry index", e));
+    }
+
+    public Mono<ResponseEntity<Map<String, Boolean>>> execute(String idempotencyKey, String videoId, JobOperation operation,
+                                                              Map<String, String> params,
+                                                              Supplier<Mono<ResponseEntity<Map<String, Boolean>>>> work) {
+        String fingerprint = videoId + ":" + operation + ":" + new TreeMap<>(params);
+        if (idempotencyKey == null || idempotencyKey.isBlank()) {
+            return coalesce(fingerprint, null, work);
+        }
+        String key = hash(idempotencyKey);
+        Mono<ResponseEntity<Map<String, Boolean>>> coalesced = coalesce(fingerprint, key, work);
+        IdempotencyRecord reservation = IdempotencyRecord.builder()
+                .key(key)
+                .fingerprint(fingerprint)
+                .completed(false)
+                .expiresAt(Instant.now().plus(variableConfig.IDEMPOTENCY_LEASE))
+                .build();
+
+        return idempotencyRepository.insert(reservation)
+                .map(inserted -> true)
+                .onErrorResume(DuplicateKeyException.class, e -> Mono.just(false))
+                .flatMap(reserved -> reserved
+                        ? coalesced
+                        : idempotencyRepository.findById(key)
+                                .flatMap(existing -> replay(existing, fingerprint, coalesced))
+                                /*The reservation was released in between; run as a fresh request*/
+                                .switchIfEmpty(Mono.defer(() -> execute(idempotencyKey, videoId, operation, params, work))));
+    }
+
+    private Mono<ResponseEntity<Map<String, Boolean>>> replay(IdempotencyRecord existing, String fingerprint,
+                                                              Mono<ResponseEntity<Map<String, Boolean>>> coalesced) {
+        if (!existing.getFingerprint().equals(fingerprint)) {
+            return Mono.error(new IdempotencyConflictException("Idempotency key was already used for a different request", false));
+        }
+        if (existing.isCompleted()) {
+            return Mono.just(ResponseEntity.status(existing.getHttpStatus())
+                    .header(REPLAYED_HEADER, "true")
+                    .body(existing.getBody()));
+        }
+        /*Still running: attach when it runs here, otherwise the client retries later*/
+        if (inFlight.containsKey(fingerprint)) {
+            return coalesced;
+        }
+        return Mono.error(new IdempotencyConflictException("A request with this idempotency key is still in progress", true));
+    }
+
+    /**
+     * Attaches to the run of an identical request or starts one. Keys of the attached requests are recorded
+     * (or released on failure) inside the cached run, which keeps going when its subscribers cancel. A key that
+     * attaches after that step records the outcome itself.
+     */
+    private Mono<ResponseEntity<Map<String, Boolean>>> coalesce(String fingerprint, String key,
+                                                                Supplier<Mono<ResponseEntity<Map<String, Boolean>>>> work) {
+        return Mono.defer(() -> {
+            InFlight entry = inFlight.computeIfAbsent(fingerprint, ignored -> {
+                Set<String> keys = ConcurrentHashMap.newKeySet();
+                Set<String> recorded = ConcurrentHashMap.newKeySet();
+                Mono<ResponseEntity<Map<String, Boolean>>> result = Mono.defer(work)
+                        .flatMap(response -> Flux.fromIterable(List.copyOf(keys))
+                                .doOnNext(recorded::add)
+                                .concatMap(attached -> remember(attached, response))
+                                .then(Mono.just(response)))
+                        .onErrorResume(e -> Flux.fromIterable(List.copyOf(keys))
+                                .doOnNext(recorded::add)
+                                .concatMap(idempotencyRepository::deleteById)
+                                .then(Mono.error(e)))
+                        .doFinally(signal -> inFlight.remove(fingerprint))
+                        .cache();
+                return new InFlight(result, keys, recorded);
+            });
+            if (key == null) {
+                return entry.result();
+            }
+            entry.keys().add(key);
+            return entry.result()
+                    .flatMap(response -> entry.recorded().contains(key)
+                            ? Mono.just(response)
+                            : remember(key, response).thenReturn(response))
+                    .onErrorResume(e -> entry.recorded().contains(key)
+                            ? Mono.error(e)
+                            : idempotencyRepository.deleteById(key).then(Mono.error(e)));
+        });
+    }
+
+    private Mono<Void> remember(String key, ResponseEntity<Map<String, Boolean>> response) {
+        if (response.getStatusCode().is5xxServerError()) {
+            return idempotencyRepository.deleteById(key);
+        }
+        return idempotencyRepository.findAndCompleteByKey(key, response.getStatusCode().value(), response.getBody(),
+                        Instant.now().plus(variableConfig.IDEMPOTENCY_TTL))
+                .then();
+    }
+
+    private record InFlight(Mono<ResponseEntity<Map<String, Boolean>>> result, Set<String> keys, Set<String> recorded) {
+    }
+
+    private String hash(String idempotencyKey) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(idempotencyKey.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package app.ImageTask.service;
+
+import app.ImageTask.config.SchedulerConfig;
+import app.ImageTask.domain.dto.JobDto;
+import app.ImageTask.domain.enums.JobOperation;
+import app.ImageTask.util.ProcessRunner;
+import app.ImageTask.util.exception.JobCancelledException;
+import app.ImageTask.util.exception.ResourceNotFoundException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.SignalType;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+/**
+ * Registry of running processing jobs. Cancelling a job cancels its Reactor chain, which kills
+ * the ffmpeg process tree, and removes the partial outputs the job declared once those processes have exited.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class JobService {
+
+    /*Context key of the admission reservation; it is released once the job is registered and counted itself*/
+    public static final String ADMISSION_RESERVATION = "admission-reservation";
+    private static final Duration PROCESS_EXIT_TIMEOUT = Duration.ofSeconds(30);
+
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+    private final Map<String, RunningJob> jobs = new ConcurrentHashMap<>();
+
+    public Mono<Void> run(String jobId, String videoId, JobOperation operation, double estimatedSeconds,
+                          List<Path> partialOutputs, Mono<Void> work) {
+        return Mono.deferContextual(context -> {
+            RunningJob job = new RunningJob(jobId, videoId, operation, estimatedSeconds, partialOutputs, Instant.now(),
+                    new ConcurrentLinkedQueue<>(), Sinks.empty(), Sinks.empty());
+            jobs.put(jobId, job);
+            context.<Runnable>getOrEmpty(ADMISSION_RESERVATION).ifPresent(Runnable::run);
+            log.info("Job {} started: {} for video {}", jobId, operation, videoId);
+
+            Mono<Void> cancelled = job.cancelSignal().asMono()
+                    .then(Mono.error(() -> new JobCancelledException("Job " + jobId + " was cancelled")));
+
+            Consumer<CompletableFuture<Void>> trackExit = job.processExits()::add;
+            return Mono.firstWithSignal(work.contextWrite(ctx -> ctx.put(ProcessRunner.PROCESS_EXITS, trackExit)), cancelled)
+                    .doFinally(signal -> {
+                        jobs.remove(jobId);
+                        if (signal != SignalType.ON_COMPLETE) {
+                            /*A killed ffmpeg can write until it has exited, so partial outputs go once every process has*/
+                            Mono.fromFuture(CompletableFuture.allOf(job.processExits().toArray(CompletableFuture[]::new)), true)
+                                    .timeout(PROCESS_EXIT_TIMEOUT)
+                                    .onErrorResume(e -> {
+                                        log.warn("Processes of job {} did not exit within {}", jobId, PROCESS_EXIT_TIMEOUT);
+                                        return Mono.empty();
+                                    })
+                                    .then(Mono.fromRunnable(() -> deletePartialOutputs(job)).subscribeOn(ioScheduler))
+                                    .doFinally(cleaned -> job.done().tryEmitEmpty())
+                                    .subscribe();
+                        } else {
+                            job.done().tryEmitEmpty();
+                        }
+                        log.info("Job {} finished with {}", jobId, signal);
+                    });
+        });
+    }
+
+    public Flux<JobDto> getJobs() {
+        return Flux.fromIterable(runningJobs());
+    }
+
+    public List<JobDto> runningJobs() {
+        return jobs.values().stream().map(this::toDto).toList();
+    }
+
+    public Mono<JobDto> cancel(String jobId) {
+        RunningJob job = jobs.get(jobId);
+        if (job == null) {
+            return Mono.error(new ResourceNotFoundException("Job not found"));
+        }
+        job.cancelSignal().tryEmitEmpty();
+        return job.done().asMono().thenReturn(toDto(job));
+    }
+
+    /*Cancels every job of the video and completes once they have stopped and cleaned up*/
+    public Mono<Void> cancelByVideo(String videoId) {
+        return Flux.fromIterable(jobs.values())
+                .filter(job -> job.videoId().equals(videoId))
+                .flatMap(job -> {
+                    job.cancelSignal().tryEmitEmpty();
+                    return job.done().asMono();
+                })
+                .then();
+    }
+
+    private void deletePartialOutputs(RunningJob job) {
+        for (Path output : job.partialOutputs()) {
+            try {
+                if (FileSystemUtils.deleteRecursively(output)) {
+                    log.info("Removed partial output {} of job {}", output, job.id());
+                }
+            } catch (IOException e) {
+                log.warn("Failed to remove partial output {} of job {}", output, job.id(), e);
+            }
+        }
+    }
+
+    private JobDto toDto(RunningJob job) {
+        return JobDto.builder()
+                .id(job.id())
+                .videoId(job.videoId())
+                .operation(job.operation())
+                .estimatedSeconds(job.estimatedSeconds())
+                .startedAt(job.startedAt())
+                .build();
+    }
+
+    private record RunningJob(String id, String videoId, JobOperation operation, double estimatedSeconds, List<Path> partialOutputs,
+                              Instant startedAt, Queue<CompletableFuture<Void>> processExits,
+                              Sinks.Empty<Void> cancelSignal, Sinks.Empty<Void> done) {
+    }
+}
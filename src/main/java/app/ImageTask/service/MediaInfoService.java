@@ -0,0 +1,57 @@
+package app.ImageTask.service;
+
+import app.ImageTask.config.SchedulerConfig;
+import app.ImageTask.domain.entity.Video;
+import app.ImageTask.repository.VideoRepository;
+import app.ImageTask.util.FmmpegUtil;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+/**
+ * Probes duration, resolution and bitrate of a video once and keeps them on the {@link Video} document.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class MediaInfoService {
+
+    private final VideoRepository videoRepository;
+    private final FmmpegUtil ffmpegUtil;
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+
+    /*Returns the video with media info filled in; videos whose file can't be probed are returned unchanged*/
+    public Mono<Video> ensureMediaInfo(Video video) {
+        if (video.getDurationSeconds() != null && video.getWidth() != null) {
+            return Mono.just(video);
+        }
+        return Mono.fromCallable(() -> Files.isRegularFile(Paths.get(video.getFilePath())))
+                .subscribeOn(ioScheduler)
+                .flatMap(probeable -> {
+                    if (!probeable) {
+                        return Mono.just(video);
+                    }
+                    return ffmpegUtil.probeMediaInfo(video.getFilePath())
+                            .flatMap(info -> {
+                                video.setDurationSeconds(info.durationSeconds());
+                                video.setWidth(info.width());
+                                video.setHeight(info.height());
+                                video.setBitRate(info.bitRate());
+                                return videoRepository.findAndSetMediaInfoById(video.getId(), info.durationSeconds(),
+                                                info.width(), info.height(), info.bitRate())
+                                        .thenReturn(video);
+                            })
+                            .onErrorResume(e -> {
+                                log.warn("Failed to probe video {}: {}", video.getId(), e.getMessage());
+                                return Mono.just(video);
+                            });
+                });
+    }
+}
@@ -0,0 +1,224 @@
+package app.ImageTask.service;
+
+import app.ImageTask.config.SchedulerConfig;
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.domain.dto.JobDto;
+import app.ImageTask.domain.entity.Video;
+import app.ImageTask.repository.VideoRepository;
+import app.ImageTask.util.FileObservations;
+import app.ImageTask.util.HlsSegmentCache;
+import app.ImageTask.util.KeyframeIndexStore;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Deletes video files off the request path. Paths handed to {@link #reclaim} are queued and deleted
+ * in batches of {@code reclamation.batch-size} with {@code reclamation.batch-pause} between batches,
+ * so removing large HLS trees doesn't compete with live traffic for disk I/O. A periodic scan finds
+ * entries under {@code videos/}, the HLS segment cache and the cold tier that no video owns any more, e.g.
+ * left behind by a crash, a failed migration or the delete of a cold video, and queues them too.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ReclamationService {
+
+    private static final Path STORAGE_ROOT = Paths.get("videos");
+    private static final int ID_LENGTH = 36;
+
+    private final VideoRepository videoRepository;
+    private final HlsSegmentCache hlsSegmentCache;
+    private final JobService jobService;
+    private final FileObservations fileObservations;
+    private final VariableConfig variableConfig;
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+
+    private final Sinks.Many<Path> queue = Sinks.many().unicast().onBackpressureBuffer();
+    private final AtomicBoolean scanning = new AtomicBoolean();
+    /*Queued paths that are in use again, e.g. restored by a recall; the queue skips them*/
+    private final Set<Path> claimed = ConcurrentHashMap.newKeySet();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        queue.asFlux()
+                .bufferTimeout(variableConfig.RECLAMATION_BATCH_SIZE, Duration.ofSeconds(1), true)
+                .concatMap(batch -> fileObservations.observe("reclaim", Mono.fromRunnable(() -> deleteBatch(batch))
+                                .subscribeOn(ioScheduler))
+                        .then(Mono.delay(variableConfig.RECLAMATION_BATCH_PAUSE)))
+                .subscribe(ignored -> { }, e -> log.error("Storage reclamation stopped", e));
+    }
+
+    public void reclaim(Collection<Path> paths) {
+        for (Path path : paths) {
+            claimed.remove(path);
+            Sinks.EmitResult result = queue.tryEmitNext(path);
+            while (result == Sinks.EmitResult.FAIL_NON_SERIALIZED) {
+                result = queue.tryEmitNext(path);
+            }
+            if (result.isFailure()) {
+                log.warn("Failed to queue {} for deletion: {}", path, result);
+            }
+        }
+    }
+
+    /*Keeps the paths if they are still queued; a later reclaim of the same path queues it again*/
+    public void claim(Collection<Path> paths) {
+        claimed.addAll(paths);
+    }
+
+    @Scheduled(initialDelayString = "${reclamation.scan-interval:1h}", fixedDelayString = "${reclamation.scan-interval:1h}")
+    public void scheduleOrphanScan() {
+        if (!scanning.compareAndSet(false, true)) {
+            return;
+        }
+        scanOrphans()
+                .doFinally(signal -> scanning.set(false))
+                .subscribe(count -> log.info("Orphan scan queued {} entries for deletion", count),
+                        e -> log.warn("Orphan scan failed", e));
+    }
+
+    /*Entries are checked against Mongo one batch at a time, pausing between batches like the deletions*/
+    public Mono<Integer> scanOrphans() {
+        return Mono.fromCallable(this::listCandidates)
+                .subscribeOn(ioScheduler)
+                .flatMapMany(Flux::fromIterable)
+                .buffer(variableConfig.RECLAMATION_BATCH_SIZE)
+                .concatMap(batch -> videoRepository.findAllById(batch.stream().map(this::ownerId).distinct().toList())
+                        .collectMap(Video::getId)
+                        .map(owners -> {
+                            Set<String> busy = jobService.runningJobs().stream().map(JobDto::getVideoId).collect(Collectors.toSet());
+                            return batch.stream().filter(path -> !busy.contains(ownerId(path)) && !isOwned(path, owners)).toList();
+                        })
+                        .delayUntil(orphans -> Mono.delay(variableConfig.RECLAMATION_BATCH_PAUSE)))
+                .doOnNext(orphans -> {
+                    orphans.stream()
+                            .filter(path -> path.getParent().equals(hlsCacheRoot()))
+                            .forEach(path -> hlsSegmentCache.forgetVideo(ownerId(path)));
+                    reclaim(orphans);
+                })
+                .map(List::size)
+                .reduce(0, Integer::sum);
+    }
+
+    private List<Path> listCandidates() throws IOException {
+        Instant cutoff = Instant.now().minus(variableConfig.RECLAMATION_ORPHAN_MIN_AGE);
+        List<Path> candidates = new ArrayList<>();
+        for (Path root : List.of(STORAGE_ROOT, hlsCacheRoot(), coldRoot())) {
+            if (!Files.isDirectory(root)) {
+                continue;
+            }
+            try (Stream<Path> entries = Files.list(root)) {
+                entries.filter(path -> ownerId(path) != null)
+                        .filter(path -> isOlderThan(path, cutoff))
+                        .forEach(candidates::add);
+            }
+        }
+        return candidates;
+    }
+
+    private boolean isOwned(Path path, Map<String, Video> owners) {
+        Video owner = owners.get(ownerId(path));
+        if (owner == null) {
+            return false;
+        }
+        if (Boolean.TRUE.equals(owner.getProcessing()) || path.getParent().equals(hlsCacheRoot())) {
+            return true;
+        }
+        if (path.getParent().equals(coldRoot())) {
+            return coldNamesOf(owner).contains(path.getFileName().toString());
+        }
+        String name = path.toString();
+        return name.equals(owner.getFilePath()) || path.equals(KeyframeIndexStore.sidecarPath(owner.getFilePath()))
+                || (owner.getArtifacts() != null && owner.getArtifacts().contains(name));
+    }
+
+    /*Every file of a video is named after its id: <id>.mp4, <id>.kfi, <id>_<rendition>.gif, <id>_<rendition>_hls, hls_cache/<id>, cold_storage/<id>.mp4*/
+    private String ownerId(Path path) {
+        String name = path.getFileName().toString();
+        if (name.length() < ID_LENGTH) {
+            return null;
+        }
+        String id = name.substring(0, ID_LENGTH);
+        try {
+            UUID.fromString(id);
+            return id;
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    private boolean isOlderThan(Path path, Instant cutoff) {
+        try {
+            return Files.getLastModifiedTime(path).toInstant().isBefore(cutoff);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private void deleteBatch(List<Path> batch) {
+        for (Path path : batch) {
+            if (claimed.remove(path)) {
+                log.debug("Skipped {}, it was claimed after being queued", path);
+                continue;
+            }
+            try {
+                if (FileSystemUtils.deleteRecursively(path)) {
+                    log.debug("Reclaimed {}", path);
+                }
+            } catch (IOException e) {
+                log.warn("Failed to reclaim {}", path, e);
+            }
+        }
+        log.info("Reclaimed batch of {} entries", batch.size());
+    }
+
+    /*Cold objects are named after the hot copy they were made from; a cold copy is kept after a recall*/
+    private Set<String> coldNamesOf(Video video) {
+        Set<String> names = new HashSet<>();
+        names.add(Paths.get(video.getFilePath()).getFileName().toString());
+        if (video.getArtifacts() != null) {
+            video.getArtifacts().forEach(artifact -> names.add(Paths.get(artifact).getFileName().toString()));
+        }
+        if (video.getRenditions() != null) {
+            video.getRenditions().forEach(rendition -> names.add(Paths.get(rendition.getPath()).getFileName().toString()));
+        }
+        return names;
+    }
+
+    private Path hlsCacheRoot() {
+        return Paths.get(variableConfig.HLS_CACHE_DIR);
+    }
+
+    private Path coldRoot() {
+        return Paths.get(variableConfig.TIERING_COLD_DIR);
+    }
+}
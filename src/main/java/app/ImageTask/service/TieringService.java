@@ -0,0 +1,204 @@
+package app.ImageTask.service;
+
+import app.ImageTask.config.SchedulerConfig;
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.domain.dto.JobDto;
+import app.ImageTask.domain.entity.Video;
+import app.ImageTask.domain.enums.StorageTier;
+import app.ImageTask.repository.VideoRepository;
+import app.ImageTask.util.ColdStorage;
+import app.ImageTask.util.HlsSegmentCache;
+import app.ImageTask.util.exception.ResourceNotFoundException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Moves videos nobody has read for {@code tiering.cold-after} to the cold tier and brings them back on
+ * demand. Every read records {@code lastAccessedAt}, and a migration only takes effect if that timestamp
+ * is unchanged and no job started meanwhile, so a video is never moved away under an active reader.
+ * Processing and HLS wait for the recall; downloads stream straight from the cold tier while the recall
+ * runs in the background.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class TieringService {
+
+    private final VideoRepository videoRepository;
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final ColdStorage coldStorage;
+    private final HlsSegmentCache hlsSegmentCache;
+    private final JobService jobService;
+    private final ReclamationService reclamationService;
+    private final VariableConfig variableConfig;
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+
+    private final Map<String, Mono<Video>> recalls = new ConcurrentHashMap<>();
+    /*Migrations between the tier flip and the deletion of the hot copies; a recall waits for them*/
+    private final Map<String, Mono<Void>> evictions = new ConcurrentHashMap<>();
+    private final AtomicBoolean migrating = new AtomicBoolean();
+
+    @Scheduled(initialDelayString = "${tiering.scan-interval:1h}", fixedDelayString = "${tiering.scan-interval:1h}")
+    public void scheduleMigration() {
+        if (!variableConfig.TIERING_ENABLED || !migrating.compareAndSet(false, true)) {
+            return;
+        }
+        migrateCold()
+                .doFinally(signal -> migrating.set(false))
+                .subscribe(count -> log.info("Moved {} videos to the cold tier", count),
+                        e -> log.warn("Cold tier migration failed", e));
+    }
+
+    public Mono<Long> migrateCold() {
+        return videoRepository.findColdCandidates(Instant.now().minus(variableConfig.TIERING_COLD_AFTER))
+                .take(variableConfig.TIERING_MAX_PER_SCAN)
+                .concatMap(this::migrate)
+                .filter(Boolean::booleanValue)
+                .count();
+    }
+
+    /*Records the read and returns the video with its files on the hot tier, recalling them first if needed*/
+    public Mono<Video> ensureHot(String id) {
+        return videoRepository.findById(id)
+                .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")))
+                .flatMap(this::ensureHot);
+    }
+
+    public Mono<Video> ensureHot(Video video) {
+        return touch(video).flatMap(current -> isCold(current) ? recall(current) : Mono.just(current));
+    }
+
+    /**
+     * Records the read; the returned document is the one written, so if a migration took effect just
+     * before, it says so. Writes at most once per {@code tiering.access-resolution}, which is far below
+     * the cold-after age, so a skipped write never leaves a video eligible for migration.
+     */
+    public Mono<Video> touch(Video video) {
+        Instant now = Instant.now();
+        if (video.getLastAccessedAt() != null
+                && video.getLastAccessedAt().isAfter(now.minus(variableConfig.TIERING_ACCESS_RESOLUTION))) {
+            return Mono.just(video);
+        }
+        return reactiveMongoTemplate.findAndModify(Query.query(Criteria.where("_id").is(video.getId())),
+                        new Update().set("lastAccessedAt", now), FindAndModifyOptions.options().returnNew(true), Video.class)
+                .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")));
+    }
+
+    public boolean isCold(Video video) {
+        return video.getTier() == StorageTier.COLD;
+    }
+
+    /*Starts the recall without waiting for it, for readers that stream from the cold tier meanwhile*/
+    public void recallInBackground(Video video) {
+        recall(video).subscribe(recalled -> { }, e -> log.warn("Recall of video {} failed", video.getId(), e));
+    }
+
+    /*Deletes the cold copies of a deleted video; they are kept after a recall, so every video may have some*/
+    public void discard(Video video) {
+        coldStorage.delete(filesOf(video))
+                .subscribe(ignored -> { }, e -> log.warn("Failed to delete cold copies of video {}", video.getId(), e));
+    }
+
+    private Mono<Video> recall(Video video) {
+        List<Path> files = filesOf(video);
+        return recalls.computeIfAbsent(video.getId(), id -> evictions.getOrDefault(id, Mono.empty())
+                .then(Mono.fromRunnable(() -> reclamationService.claim(files)))
+                .thenMany(Flux.fromIterable(files))
+                .concatMap(coldStorage::restore)
+                .then(videoRepository.findAndSetTierById(id, StorageTier.HOT))
+                .then(videoRepository.findById(id))
+                .doOnNext(recalled -> log.info("Recalled video {} from the cold tier", id))
+                .doFinally(signal -> recalls.remove(id))
+                .cache());
+    }
+
+    private Mono<Boolean> migrate(Video video) {
+        if (recalls.containsKey(video.getId()) || hasRunningJob(video.getId())) {
+            return Mono.just(false);
+        }
+        List<Path> files = filesOf(video);
+        /*Registered before the flip, so a recall triggered by the COLD tier always finds it and waits for
+        the hot copies to be gone before restoring them*/
+        Sinks.Empty<Void> evicted = Sinks.empty();
+        Mono<Void> eviction = evicted.asMono();
+        return Flux.fromIterable(files)
+                .concatMap(coldStorage::store)
+                .then(Mono.fromRunnable(() -> evictions.put(video.getId(), eviction)))
+                .then(videoRepository.findAndSetTierByIdAndLastAccessedAtAndProcessingNot(video.getId(),
+                        video.getLastAccessedAt(), true, StorageTier.COLD))
+                .flatMap(updated -> {
+                    if (updated == 0) {
+                        log.info("Video {} was used during migration, keeping it hot", video.getId());
+                        return Mono.just(false);
+                    }
+                    /*The segment cache is derived from the original and goes with the hot copies*/
+                    List<Path> hotCopies = new ArrayList<>(files);
+                    hotCopies.add(hlsSegmentCache.forgetVideo(video.getId()));
+                    return deleteHotCopies(hotCopies)
+                            .doOnSuccess(done -> log.info("Moved video {} to the cold tier", video.getId()))
+                            .thenReturn(true);
+                })
+                .doFinally(signal -> {
+                    evictions.remove(video.getId(), eviction);
+                    evicted.tryEmitEmpty();
+                })
+                .onErrorResume(e -> {
+                    log.warn("Failed to move video {} to the cold tier", video.getId(), e);
+                    return Mono.just(false);
+                });
+    }
+
+    /*Deleted before the migration completes rather than queued for reclamation, so a recall never finds a
+    hot copy that is about to disappear*/
+    private Mono<Void> deleteHotCopies(List<Path> hotCopies) {
+        return Mono.fromCallable(() -> {
+                    for (Path path : hotCopies) {
+                        FileSystemUtils.deleteRecursively(path);
+                    }
+                    return hotCopies;
+                })
+                .subscribeOn(ioScheduler)
+                .then();
+    }
+
+    private boolean hasRunningJob(String videoId) {
+        return jobService.runningJobs().stream().map(JobDto::getVideoId).anyMatch(videoId::equals);
+    }
+
+    private List<Path> filesOf(Video video) {
+        Set<Path> files = new LinkedHashSet<>();
+        if (video.getArtifacts() != null) {
+            video.getArtifacts().forEach(artifact -> files.add(Paths.get(artifact)));
+        }
+        if (video.getRenditions() != null) {
+            video.getRenditions().forEach(rendition -> files.add(Paths.get(rendition.getPath())));
+        }
+        files.add(Paths.get(video.getFilePath()));
+        return List.copyOf(files);
+    }
+}
@@ -1,40 +1,74 @@
 package app.ImageTask.service;
 
+import app.ImageTask.config.SchedulerConfig;
 import app.ImageTask.config.VariableConfig;
 import app.ImageTask.domain.dto.CutTimeDto;
+import app.ImageTask.domain.dto.EncoderSettings;
+import app.ImageTask.domain.dto.HlsRung;
+import app.ImageTask.domain.dto.PreviewDto;
+import app.ImageTask.domain.dto.PreviewSpec;
+import app.ImageTask.domain.dto.RenditionDto;
 import app.ImageTask.domain.dto.SizeDto;
 import app.ImageTask.domain.dto.VideoDto;
+import app.ImageTask.domain.entity.Rendition;
 import app.ImageTask.domain.entity.Video;
+import app.ImageTask.domain.enums.JobOperation;
+import app.ImageTask.domain.enums.StorageTier;
 import app.ImageTask.repository.VideoRepository;
+import app.ImageTask.util.ColdStorage;
+import app.ImageTask.util.FileObservations;
 import app.ImageTask.util.FmmpegUtil;
+import app.ImageTask.util.HlsSegmentCache;
+import app.ImageTask.util.KeyframeIndex;
+import app.ImageTask.util.KeyframeIndexStore;
+import app.ImageTask.util.UploadValidator;
+import app.ImageTask.util.UploadWriter;
+import app.ImageTask.util.exception.InvalidMediaException;
+import app.ImageTask.util.exception.JobCancelledException;
+import app.ImageTask.util.exception.PayloadTooLargeException;
 import app.ImageTask.util.exception.ResourceNotFoundException;
-import jakarta.annotation.PostConstruct;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import lombok.RequiredArgsConstructor;
-import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import net.bramp.ffmpeg.FFmpeg;
-import net.bramp.ffmpeg.FFmpegExecutor;
-import net.bramp.ffmpeg.FFprobe;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
 import org.springframework.core.io.buffer.DataBuffer;
-import org.springframework.core.io.buffer.DataBufferFactory;
-import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.ETag;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.codec.multipart.FilePart;
+import org.springframework.http.codec.multipart.FilePartEvent;
+import org.springframework.http.codec.multipart.PartEvent;
 import org.springframework.stereotype.Service;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.Scheduler;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 @Service
 @RequiredArgsConstructor
@@ -44,39 +78,68 @@ public class VideoService {
     private final VideoRepository videoRepository;
     private final VariableConfig variableConfig;
     private final FmmpegUtil ffmpegUtil;
-    private FFmpegExecutor executor;
-    private FFmpeg fFmpeg;
-    private FFprobe fFprobe;
-
-    @SneakyThrows
-    @PostConstruct
-    public void initFFmpeg() {
-        String ffmpegPath = variableConfig.FFMPEG_PATH;
-        String ffprobePath = variableConfig.FFPROBE_PATH;
-
-
-        if (ffmpegPath == null || ffprobePath == null) {
-            throw new IllegalStateException("FFMPEG_PATH and FFPROBE_PATH environment variables must be set");
+    private final HlsSegmentCache hlsSegmentCache;
+    private final JobService jobService;
+    private final UploadValidator uploadValidator;
+    private final UploadWriter uploadWriter;
+    private final AdmissionService admissionService;
+    private final ReclamationService reclamationService;
+    private final FileObservations fileObservations;
+    private final KeyframeIndexStore keyframeIndexStore;
+    private final TieringService tieringService;
+    private final MediaInfoService mediaInfoService;
+    private final EncodingPlanner encodingPlanner;
+    private final ColdStorage coldStorage;
+    private final ObjectMapper objectMapper;
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+
+    private static final MediaType HLS_PLAYLIST_TYPE = MediaType.parseMediaType("application/vnd.apple.mpegurl");
+    private static final MediaType HLS_SEGMENT_TYPE = MediaType.parseMediaType("video/mp2t");
+    private static final String HLS_FORMAT = "hls";
+    private static final String UPLOAD_PART = "file";
+    /*Allowance for the multipart boundaries and part headers around the file*/
+    private static final long MULTIPART_OVERHEAD_BYTES = 64 * 1024;
+
+    /**
+     * Saves the {@code file} part of a multipart upload while it streams in. The part events carry the network
+     * buffers as they arrive, so the MP4 signature and size checks abort a bad upload within its first buffers,
+     * and nothing is buffered on disk before the upload is written to its final place. A declared length over
+     * {@code upload.max-bytes} is rejected before any of the body is read.
+     */
+    public Mono<ResponseEntity<Map<String, String>>> saveVideo(Long contentLength, Flux<PartEvent> parts) {
+        if (contentLength != null && contentLength > variableConfig.UPLOAD_MAX_BYTES + MULTIPART_OVERHEAD_BYTES) {
+            return Mono.error(new PayloadTooLargeException("Uploaded file exceeds " + variableConfig.UPLOAD_MAX_BYTES + " bytes"));
         }
-        fFmpeg = new FFmpeg(ffmpegPath);
-        fFprobe = new FFprobe(ffprobePath);
-
-        executor = new FFmpegExecutor(fFmpeg, fFprobe);
-
-        log.info("ffmpeg was initialized");
+        return parts.windowUntil(PartEvent::isLast)
+                .concatMap(part -> part.switchOnFirst((signal, events) -> {
+                    if (signal.get() instanceof FilePartEvent file && UPLOAD_PART.equals(file.name())) {
+                        return saveVideo(file.filename(), file.headers().getContentType(), events.map(PartEvent::content));
+                    }
+                    // other parts are drained, so the stream moves on to the next one
+                    return events.doOnNext(event -> DataBufferUtils.release(event.content()))
+                            .then(Mono.<ResponseEntity<Map<String, String>>>empty());
+                }))
+                .next()
+                .switchIfEmpty(Mono.error(() -> new InvalidMediaException("Request has no " + UPLOAD_PART + " part")));
     }
 
     public Mono<ResponseEntity<Map<String, String>>> saveVideo(FilePart file) {
-        return Mono.zip(ffmpegUtil.isMp4File(file),
-                        ffmpegUtil.getNameWithoutExtension(file.filename()),
-                        ffmpegUtil.getFileFormat(file.filename()))
+        return saveVideo(file.filename(), file.headers().getContentType(), file.content());
+    }
+
+    private Mono<ResponseEntity<Map<String, String>>> saveVideo(String originalFilename, MediaType contentType,
+                                                               Flux<DataBuffer> content) {
+        return Mono.zip(ffmpegUtil.isMp4File(originalFilename, contentType),
+                        ffmpegUtil.getNameWithoutExtension(originalFilename),
+                        ffmpegUtil.getFileFormat(originalFilename))
                 .flatMap(tuple -> {
                     boolean isMp4 = tuple.getT1();
                     String filename = tuple.getT2();
                     String format = tuple.getT3();
 
                     if (!isMp4) {
-                        return Mono.error(new IllegalArgumentException("Uploaded file is not an MP4 file!!"));
+                        return Mono.error(new InvalidMediaException("Uploaded file is not an MP4 file!!"));
                     }
 
                     String id = UUID.randomUUID().toString();
@@ -85,19 +148,28 @@ public class VideoService {
                     return Mono.fromCallable(() -> {
                                 Files.createDirectories(filePath.getParent());
                                 return filePath;
-                            }).subscribeOn(Schedulers.boundedElastic())
-                            .flatMap(path -> file.transferTo(path)
+                            }).subscribeOn(ioScheduler)
+                            .flatMap(path -> fileObservations.observe("upload",
+                                            uploadWriter.write(uploadValidator.validateMp4(content), path))
+                                    .onErrorResume(e -> Mono.fromCallable(() -> Files.deleteIfExists(path))
+                                            .subscribeOn(ioScheduler)
+                                            .then(Mono.error(e)))
                                     .then(Mono.fromCallable(() -> Video.builder()
                                             .id(id)
                                             .filename(filename)
                                             .format(format)
                                             .filePath(path.toString())
+                                            .artifacts(new ArrayList<>(List.of(path.toString(),
+                                                    KeyframeIndexStore.sidecarPath(path.toString()).toString())))
+                                            .tier(StorageTier.HOT)
+                                            .lastAccessedAt(Instant.now())
                                             .processing(false)
                                             .processingSuccess(null)
                                             .build()))
                             );
                 })
                 .flatMap(videoRepository::save)
+                .doOnNext(this::indexInBackground)
                 .map(video -> {
                     log.info("Video was saved, ID : {}", video.getId());
                     Map<String, String> responseMap = new HashMap<>();
@@ -107,6 +179,12 @@ public class VideoService {
     }
 
 
+    /*Cuts, chunked encodes and lazy HLS read the index; building it right after upload keeps that off their path*/
+    private void indexInBackground(Video video) {
+        keyframeIndexStore.build(video.getFilePath())
+                .subscribe(index -> { }, e -> log.warn("Failed to index video {}: {}", video.getId(), e.getMessage()));
+    }
+
     public Mono<ResponseEntity<VideoDto>> getVideo(String id) {
         return videoRepository.findById(id)
                 .map(video ->
@@ -116,51 +194,65 @@ public class VideoService {
                                 .format(video.getFormat())
                                 .processing(video.getProcessing())
                                 .processingSuccess(video.getProcessingSuccess())
+                                .jobId(video.getJobId())
+                                .renditions(renditionsOf(video).stream().map(this::toRenditionDto).toList())
+                                .tier(video.getTier() == null ? StorageTier.HOT : video.getTier())
                                 .build())
-                .map(ResponseEntity::ok)
+                .map(dto -> ResponseEntity.ok()
+                        .eTag(metadataTag(dto))
+                        .body(dto))
                 .switchIfEmpty(Mono.just(ResponseEntity.status(HttpStatus.NOT_FOUND).build()));
     }
 
     public Mono<ResponseEntity<Map<String, Boolean>>> deleteVideo(String id) {
         return videoRepository.findById(id)
                 .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")))
-                .flatMap(video -> Mono.fromCallable(() -> {
-                            try {
-                                Files.deleteIfExists(Paths.get(video.getFilePath()));
-                                log.info("Video file deleted successfully with ID: {}", id);
-                                return video;
-                            } catch (IOException e) {
-                                throw new RuntimeException("Error deleting file", e);
-                            }
-                        }).subscribeOn(Schedulers.boundedElastic())
-                        .flatMap(videoRepository::delete)
+                .flatMap(video -> jobService.cancelByVideo(id)
+                        .then(videoRepository.delete(video))
+                        .then(Mono.fromRunnable(() -> {
+                            /*Files go away in the background; the document is already gone, so nothing can reference them*/
+                            reclamationService.reclaim(ownedPaths(video));
+                            tieringService.discard(video);
+                            log.info("Video deleted, files queued for reclamation, ID: {}", id);
+                        }))
                         .then(Mono.just(ResponseEntity.ok(Map.of("success", true)))));
     }
 
-    public Mono<ResponseEntity<?>> downloadVideo(String id) {
+    /*Downloads the original, or one of its renditions when renditionId is given*/
+    public Mono<ResponseEntity<?>> downloadVideo(String id, String renditionId) {
         return videoRepository.findById(id)
                 .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")))
-                .flatMap(video -> Mono.fromCallable(() -> {
-                            Path filePath = Paths.get(video.getFilePath());
-                            if (Files.exists(filePath)) {
-                                return filePath;
-                            } else {
-                                throw new ResourceNotFoundException("File not found");
-                            }
-                        }).subscribeOn(Schedulers.boundedElastic())
-                        .flatMap(filePath -> {
-                            DataBufferFactory dataBufferFactory = new DefaultDataBufferFactory();
-                            try {
-                                byte[] fileBytes = Files.readAllBytes(filePath);
-                                DataBuffer dataBuffer = dataBufferFactory.wrap(fileBytes);
-                                return Mono.just(ResponseEntity.ok()
-                                        .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + video.getFilename() + "." + video.getFormat() + "\"")
-                                        .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                                        .body(dataBuffer));
-                            } catch (IOException e) {
-                                throw new RuntimeException("Error downloading file", e);
-                            }
-                        }));
+                .flatMap(tieringService::touch)
+                .flatMap(video -> {
+                    StoredFile stored = storedFile(video, renditionId);
+                    if (tieringService.isCold(video)) {
+                        /*Streams the cold copy while the whole video is recalled, so the first bytes don't wait for the recall*/
+                        tieringService.recallInBackground(video);
+                        return coldStorage.lastModified(stored.path())
+                                .onErrorMap(NoSuchFileException.class, e -> new ResourceNotFoundException("File not found"))
+                                .<ResponseEntity<?>>map(lastModified -> download(stored, lastModified)
+                                        .body(coldStorage.read(stored.path())));
+                    }
+                    return fileObservations.observe("stat", Mono.fromCallable(() -> {
+                                if (Files.isRegularFile(stored.path())) {
+                                    return stored.path();
+                                } else {
+                                    throw new ResourceNotFoundException("File not found");
+                                }
+                            }).subscribeOn(ioScheduler))
+                            .flatMap(filePath -> lastModified(filePath)
+                                    /*The body is written lazily, so a 304 answered from the validators never reads the file*/
+                                    .map(lastModified -> download(stored, lastModified)
+                                            .body(new FileSystemResource(filePath))));
+                });
+    }
+
+    private ResponseEntity.BodyBuilder download(StoredFile stored, Instant lastModified) {
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + stored.filename() + "\"")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .eTag(stored.tag())
+                .lastModified(lastModified);
     }
     /*Method for change size vido*/
     public Mono<ResponseEntity<Map<String, Boolean>>> changeVideoSize(SizeDto sizeDto, String id) {
@@ -170,46 +262,37 @@ public class VideoService {
                     if (sizeDto.getWidth() % 2 != 0 || sizeDto.getHeight() % 2 != 0) {
                         throw new IllegalArgumentException("Width and height must be even numbers greater than 20");
                     }
-                    video.setProcessing(true);
-                    video.setProcessingSuccess(null);
-
-                    return videoRepository.save(video)
-                            .then(ffmpegUtil.convertVideo(video.getFilePath(), sizeDto.getWidth(), sizeDto.getHeight(), executor))
-                            .then(Mono.defer(() -> {
-                                video.setProcessing(false);
-                                video.setProcessingSuccess(true);
-                                video.setFilePath(Paths.get("videos", id + ".mp4").toString());
-                                return videoRepository.save(video).thenReturn(ResponseEntity.ok(Map.of("success", true)));
-                            }));
+                    EncoderSettings settings = encodingPlanner.settingsFor(video, "libx264");
+                    return createRendition(video, JobOperation.RESIZE,
+                            withPreset(Map.of("width", String.valueOf(sizeDto.getWidth()), "height", String.valueOf(sizeDto.getHeight())), settings), "mp4",
+                            outputPath -> ffmpegUtil.convertVideo(video.getFilePath(), outputPath, sizeDto.getWidth(), sizeDto.getHeight(), settings));
                 })
                 .onErrorResume(e -> {
                     log.error("Global error in conversion: {}", e.getMessage());
-                    return handleConversionError(id);
+                    return handleConversionError(id, null, e);
                 });
     }
 
     public Mono<ResponseEntity<Map<String, Boolean>>> toGif(String id) {
+        return planPreview(id, null).flatMap(spec -> toGif(id, spec));
+    }
+
+    /*Resolves the previewed range before any job starts, so a start past the end is rejected with 400*/
+    public Mono<PreviewSpec> planPreview(String id, PreviewDto previewDto) {
         return videoRepository.findById(id)
                 .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")))
-                .flatMap(video -> {
-                    video.setProcessing(true);
-                    video.setProcessingSuccess(null);
-
-                    return videoRepository.save(video)
-                            .then(ffmpegUtil.convertVideoToGif(video.getFilePath(), executor))
-                            .then(Mono.defer(() -> {
-                                video.setProcessing(false);
-                                video.setProcessingSuccess(true);
-                                video.setFormat("gif");
-                                video.setFilePath(Paths.get("videos", id + ".gif").toString());
-                                log.info("Video converted successfully, ID: {}", id);
-                                return videoRepository.save(video)
-                                        .thenReturn(ResponseEntity.ok(Map.of("success", true)));
-                            }));
-                })
+                .flatMap(video -> ffmpegUtil.planPreview(video.getFilePath(), previewDto));
+    }
+
+    /*Animated preview of a bounded part of the video; the resolved range and settings are kept as rendition params*/
+    public Mono<ResponseEntity<Map<String, Boolean>>> toGif(String id, PreviewSpec spec) {
+        return videoRepository.findById(id)
+                .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")))
+                .flatMap(video -> createRendition(video, JobOperation.GIF, spec.params(), spec.format(),
+                        outputPath -> ffmpegUtil.createPreview(video.getFilePath(), outputPath, spec)))
                 .onErrorResume(e -> {
                     log.error("Conversion failed, ID: {}", id, e);
-                    return handleConversionError(id);
+                    return handleConversionError(id, null, e);
                 });
     }
 
@@ -217,46 +300,25 @@ public class VideoService {
         return videoRepository.findById(id)
                 .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")))
                 .flatMap(video -> {
-                    video.setProcessing(true);
-                    video.setProcessingSuccess(null);
-                    return ffmpegUtil.transcodeVideoWithCodec(video.getFilePath(), outputCodec)
-                            .then(Mono.fromRunnable(() -> {
-                                video.setFilePath(Paths.get("videos", id + ".mp4").toString());
-                                video.setProcessing(false);
-                                video.setProcessingSuccess(true);
-                            }))
-                            .then(videoRepository.save(video))
-                            .thenReturn(ResponseEntity.ok(Map.of("success", true)));
+                    EncoderSettings settings = encodingPlanner.settingsFor(video, outputCodec);
+                    return createRendition(video, JobOperation.TRANSCODE, withPreset(Map.of("codec", outputCodec), settings), "mp4",
+                            outputPath -> ffmpegUtil.transcodeVideoWithCodec(video.getFilePath(), outputPath, outputCodec, settings));
                 })
                 .onErrorResume(e -> {
                     log.error("Error processing request for ID: {}", id, e);
-                    Map<String, Boolean> errorMap = new HashMap<>();
-                    errorMap.put("error", Boolean.FALSE);
-                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorMap));
+                    return handleConversionError(id, null, e);
                 });
     }
 
     public Mono<ResponseEntity<Map<String, Boolean>>> cutByTime(String id, CutTimeDto cutTimeDto) {
         return videoRepository.findById(id)
-                .flatMap(video -> {
-                    video.setProcessing(true);
-                    video.setProcessingSuccess(null);
-                    return videoRepository.save(video)
-                            .then(ffmpegUtil.cutVideoByTime(video.getFilePath(), cutTimeDto.getStart(), cutTimeDto.getEnd(), executor))
-                            .then(Mono.defer(() -> {
-                                video.setProcessing(false);
-                                video.setProcessingSuccess(true);
-
-                                video.setFilePath(Paths.get("videos", id + ".mp4").toString());
-                                return videoRepository.save(video)
-                                        .thenReturn(ResponseEntity.ok(Map.of("success", true)));
-                            }));
-                })
+                .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")))
+                .flatMap(video -> createRendition(video, JobOperation.CUT,
+                        Map.of("start", cutTimeDto.getStart(), "end", cutTimeDto.getEnd()), "mp4",
+                        outputPath -> ffmpegUtil.cutVideoByTime(video.getFilePath(), outputPath, cutTimeDto.getStart(), cutTimeDto.getEnd())))
                 .onErrorResume(e -> {
                     log.error("Error processing request for ID: {}", id, e);
-                    Map<String, Boolean> errorMap = new HashMap<>();
-                    errorMap.put("error", Boolean.FALSE);
-                    return Mono.just(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(errorMap));
+                    return handleConversionError(id, null, e);
                 });
     }
 
@@ -265,73 +327,332 @@ public class VideoService {
         return videoRepository.findById(id)
                 .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")))
                 .flatMap(video -> {
-                    video.setProcessing(true);
-                    video.setProcessingSuccess(null);
-
-                    return videoRepository.save(video)
-                            .then(ffmpegUtil.convertVideoToHLSWithMultiBitrate(video.getFilePath(), "videos/" + id + "_hls", executor))
-                            .then(Mono.defer(() -> {
-                                video.setProcessing(false);
-                                video.setProcessingSuccess(true);
-                                video.setFilePath("videos/" + id + "_hls");
-                                return videoRepository.save(video)
-                                        .thenReturn(ResponseEntity.ok(Map.of("success", true)));
-                            }))
-                            .onErrorResume(e -> {
-                                log.error("Conversion to HLS failed, ID: {}", id, e);
-                                return handleConversionError(id);
-                            });
+                    /*The ladder follows the probed source, which admission has stored on the video*/
+                    List<HlsRung> ladder = encodingPlanner.ladderFor(video);
+                    EncoderSettings settings = encodingPlanner.settingsFor(video, "libx264");
+                    return createRendition(video, JobOperation.HLS, withPreset(Map.of(), settings), ladder, HLS_FORMAT,
+                            outputPath -> ffmpegUtil.convertVideoToHLSWithMultiBitrate(video.getFilePath(), outputPath, ladder, settings));
+                })
+                .onErrorResume(e -> {
+                    log.error("Conversion to HLS failed, ID: {}", id, e);
+                    return handleConversionError(id, null, e);
                 });
     }
 
 
     public Mono<ResponseEntity<?>> getHlsPlaylist(String id, String bitrate) {
-        return videoRepository.findById(id)
-                .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")))
+        return tieringService.ensureHot(id)
                 .flatMap(video -> {
-                    Map<String, String> bitrateToStreamDir = Map.of(
-                            "800k", "stream_0",
-                            "1200k", "stream_1",
-                            "2400k", "stream_2",
-                            "4800k", "stream_3",
-                            "7200k", "stream_4"
-                    );
-
+                    Rendition hls = latestHlsRendition(video);
                     // Get the stream directory for the given bitrate
-                    String streamDir = bitrateToStreamDir.get(bitrate);
-                    if (streamDir == null) {
+                    int streamIndex = findRungIndex(ladderOf(hls), bitrate);
+                    if (streamIndex < 0) {
                         throw new IllegalArgumentException("Invalid bitrate: " + bitrate);
                     }
+                    String streamDir = "stream_" + streamIndex;
 
                     // Construct the path to the playlist file
-                    Path playlistPath = Paths.get(video.getFilePath(), streamDir, "index.m3u8");
-                    if (Files.exists(playlistPath)) {
-                        try {
-                            String playlistContent = new String(Files.readAllBytes(playlistPath));
-                            List<String> tsFiles = ffmpegUtil.extractTsFilesFromPlaylist(playlistContent);
-                            byte[] zipBytes = ffmpegUtil.createZipArchive(playlistPath.getParent(), tsFiles);
-                            return Mono.just(ResponseEntity.ok()
-                                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + id + "_hls_" + bitrate + ".zip\"")
-                                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                                    .body(zipBytes));
-                        } catch (Exception e) {
-                            throw new RuntimeException("Error reading playlist file", e);
-                        }
-                    } else {
-                        throw new ResourceNotFoundException("Playlist not found for bitrate: " + bitrate);
-                    }
+                    Path playlistPath = Paths.get(hls.getPath(), streamDir, "index.m3u8");
+                    return fileObservations.observe("zip", Mono.fromCallable(() -> {
+                                if (!Files.exists(playlistPath)) {
+                                    throw new ResourceNotFoundException("Playlist not found for bitrate: " + bitrate);
+                                }
+                                return hlsBundle(playlistPath);
+                            })
+                            .subscribeOn(ioScheduler))
+                            .flatMap(bundlePath -> lastModified(playlistPath)
+                                    .map(lastModified -> ResponseEntity.ok()
+                                            .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + id + "_hls_" + bitrate + ".zip\"")
+                                            .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                                            .eTag(id + "-" + hls.getId() + "-" + bitrate)
+                                            .lastModified(lastModified)
+                                            .body(new FileSystemResource(bundlePath))));
                 });
     }
 
 
-    private Mono<ResponseEntity<Map<String, Boolean>>> handleConversionError(String id) {
-        return videoRepository.findById(id)
-                .flatMap(errorVideo -> {
-                    errorVideo.setProcessing(false);
-                    errorVideo.setProcessingSuccess(false);
-                    return videoRepository.save(errorVideo);
+    /*Recalls a cold video first like the media playlists, so the ladder is built from the same probed source*/
+    public Mono<ResponseEntity<String>> getLazyHlsMasterPlaylist(String id) {
+        return tieringService.ensureHot(id)
+                .flatMap(mediaInfoService::ensureMediaInfo)
+                .map(video -> {
+                    String playlist = ffmpegUtil.buildHlsMasterPlaylist(encodingPlanner.ladderFor(video));
+                    return ResponseEntity.ok()
+                            .contentType(HLS_PLAYLIST_TYPE)
+                            .eTag(contentTag(video) + "-master-" + sha256(playlist.getBytes(StandardCharsets.UTF_8)))
+                            .body(playlist);
+                });
+    }
+
+    public Mono<ResponseEntity<String>> getLazyHlsMediaPlaylist(String id, String bitrate) {
+        return tieringService.ensureHot(id)
+                .flatMap(mediaInfoService::ensureMediaInfo)
+                .filter(video -> findRungIndex(encodingPlanner.ladderFor(video), bitrate) >= 0)
+                .switchIfEmpty(Mono.error(() -> new ResourceNotFoundException("Playlist not found for bitrate: " + bitrate)))
+                .flatMap(video -> keyframeIndex(video).map(index -> ResponseEntity.ok()
+                        .contentType(HLS_PLAYLIST_TYPE)
+                        .eTag(contentTag(video) + "-" + bitrate + "-kf" + variableConfig.HLS_SEGMENT_SECONDS)
+                        .body(ffmpegUtil.buildHlsMediaPlaylist(index.segmentBoundaries(variableConfig.HLS_SEGMENT_SECONDS),
+                                index.durationSeconds()))));
+    }
+
+    /*Segments are encoded on first request and then served from the LRU segment cache. Every segment starts
+    on a keyframe of the source, so the input seek lands exactly on it and no frames are decoded twice*/
+    public Mono<ResponseEntity<Resource>> getLazyHlsSegment(String id, String bitrate, int index, String ifNoneMatch) {
+        String tag = segmentTag(id, bitrate, index);
+        if (matches(ifNoneMatch, tag)) {
+            /*The tag is known from the path alone, so a revalidation never recalls, probes or encodes*/
+            return Mono.just(ResponseEntity.status(HttpStatus.NOT_MODIFIED).eTag(tag).build());
+        }
+        return tieringService.ensureHot(id)
+                .flatMap(mediaInfoService::ensureMediaInfo)
+                .flatMap(video -> keyframeIndex(video).flatMap(keyframes -> {
+                    List<HlsRung> ladder = encodingPlanner.ladderFor(video);
+                    int rungIndex = findRungIndex(ladder, bitrate);
+                    if (rungIndex < 0) {
+                        return Mono.error(new ResourceNotFoundException("Playlist not found for bitrate: " + bitrate));
+                    }
+                    HlsRung rung = ladder.get(rungIndex);
+                    double[] starts = keyframes.segmentBoundaries(variableConfig.HLS_SEGMENT_SECONDS);
+                    if (index < 0 || index >= starts.length) {
+                        return Mono.error(new ResourceNotFoundException("Segment not found: " + index));
+                    }
+                    double start = starts[index];
+                    double length = ffmpegUtil.hlsSegmentEnd(starts, index, keyframes.durationSeconds()) - start;
+                    // keyframe-aligned segments get their own directory so ones cut at fixed offsets are never reused
+                    Path segmentPath = hlsSegmentCache.segmentPath(id, bitrate + "_kf", index);
+                    return hlsSegmentCache.getOrEncode(segmentPath, target ->
+                                    ffmpegUtil.encodeHlsSegment(video.getFilePath(), target, rung, start, length,
+                                            encodingPlanner.settingsFor(video, "libx264")))
+                            .flatMap(cached -> lastModified(cached)
+                                    .map(lastModified -> ResponseEntity.ok()
+                                            .contentType(HLS_SEGMENT_TYPE)
+                                            .eTag(tag)
+                                            .lastModified(lastModified)
+                                            .body((Resource) new FileSystemResource(cached))));
+                }));
+    }
+
+    /*Weak, because a segment encoded again after eviction may use another preset and differ byte for byte*/
+    private String segmentTag(String id, String bitrate, int index) {
+        return "W/\"" + id + "-" + bitrate + "-kf" + index + "\"";
+    }
+
+    private boolean matches(String ifNoneMatch, String tag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        ETag current = ETag.create(tag);
+        return ETag.parse(ifNoneMatch).stream()
+                .anyMatch(candidate -> candidate.isWildcard() || candidate.compare(current, false));
+    }
+
+    private Mono<KeyframeIndex> keyframeIndex(Video video) {
+        return Mono.fromCallable(() -> {
+                    Path source = Paths.get(video.getFilePath());
+                    if (!Files.isRegularFile(source) || !source.toString().endsWith(".mp4")) {
+                        throw new InvalidMediaException("On-demand HLS requires an MP4 source");
+                    }
+                    return video.getFilePath();
                 })
-                .thenReturn(ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
-                        .body(Map.of("error", false)));
+                .subscribeOn(ioScheduler)
+                .flatMap(keyframeIndexStore::get)
+                .filter(index -> index.durationSeconds() > 0)
+                .switchIfEmpty(Mono.error(() -> new InvalidMediaException("Unable to probe duration of video " + video.getId())));
+    }
+
+    /*The zip of a rendition is built once next to its playlist and then served like any other file*/
+    private Path hlsBundle(Path playlistPath) throws IOException {
+        Path bundlePath = playlistPath.resolveSibling("bundle.zip");
+        if (Files.exists(bundlePath)
+                && !Files.getLastModifiedTime(bundlePath).toInstant().isBefore(Files.getLastModifiedTime(playlistPath).toInstant())) {
+            return bundlePath;
+        }
+        String playlistContent = Files.readString(playlistPath);
+        List<String> tsFiles = ffmpegUtil.extractTsFilesFromPlaylist(playlistContent);
+        Path partPath = playlistPath.resolveSibling("bundle.zip.part");
+        Files.write(partPath, ffmpegUtil.createZipArchive(playlistPath.getParent(), tsFiles));
+        return Files.move(partPath, bundlePath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private List<Path> ownedPaths(Video video) {
+        Set<Path> paths = new LinkedHashSet<>();
+        if (video.getArtifacts() != null) {
+            video.getArtifacts().forEach(artifact -> paths.add(Paths.get(artifact)));
+        }
+        renditionsOf(video).forEach(rendition -> paths.add(Paths.get(rendition.getPath())));
+        paths.add(Paths.get(video.getFilePath()));
+        paths.add(hlsSegmentCache.forgetVideo(video.getId()));
+        return List.copyOf(paths);
+    }
+
+    private Mono<Instant> lastModified(Path path) {
+        return fileObservations.observe("stat", Mono.fromCallable(() -> Files.getLastModifiedTime(path).toInstant())
+                .subscribeOn(ioScheduler));
+    }
+
+    /*The original is never rewritten, so its id is a strong validator; renditions are immutable too*/
+    private String contentTag(Video video) {
+        return video.getId();
+    }
+
+    /*A digest of the serialized body, so any change to the metadata changes the strong validator*/
+    private String metadataTag(VideoDto dto) {
+        try {
+            return "m-" + sha256(objectMapper.writeValueAsBytes(dto));
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException("Video metadata is not serializable", e);
+        }
+    }
+
+    private String sha256(byte[] content) {
+        try {
+            return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private StoredFile storedFile(Video video, String renditionId) {
+        if (renditionId == null) {
+            return new StoredFile(Paths.get(video.getFilePath()), video.getFilename() + "." + video.getFormat(), contentTag(video));
+        }
+        Rendition rendition = renditionsOf(video).stream()
+                .filter(candidate -> candidate.getId().equals(renditionId))
+                .findFirst()
+                .orElseThrow(() -> new ResourceNotFoundException("Rendition not found"));
+        if (HLS_FORMAT.equals(rendition.getFormat())) {
+            throw new InvalidMediaException("HLS renditions are downloaded per bitrate from /file/getHLS");
+        }
+        return new StoredFile(Paths.get(rendition.getPath()),
+                video.getFilename() + "_" + rendition.getOperation().key() + "." + rendition.getFormat(),
+                contentTag(video) + "-" + rendition.getId());
+    }
+
+    /*Videos converted before renditions existed point filePath at their HLS directory*/
+    private Rendition latestHlsRendition(Video video) {
+        List<Rendition> renditions = renditionsOf(video);
+        for (int i = renditions.size() - 1; i >= 0; i--) {
+            if (renditions.get(i).getOperation() == JobOperation.HLS) {
+                return renditions.get(i);
+            }
+        }
+        if (Files.isDirectory(Paths.get(video.getFilePath()))) {
+            return Rendition.builder().id("legacy").operation(JobOperation.HLS).format(HLS_FORMAT).path(video.getFilePath()).build();
+        }
+        throw new ResourceNotFoundException("Video has no HLS rendition");
+    }
+
+    private List<Rendition> renditionsOf(Video video) {
+        return video.getRenditions() == null ? List.of() : video.getRenditions();
+    }
+
+    private RenditionDto toRenditionDto(Rendition rendition) {
+        return RenditionDto.builder()
+                .id(rendition.getId())
+                .operation(rendition.getOperation())
+                .params(rendition.getParams())
+                .format(rendition.getFormat())
+                .sizeBytes(rendition.getSizeBytes())
+                .createdAt(rendition.getCreatedAt())
+                .ladder(rendition.getLadder())
+                .build();
+    }
+
+    private Mono<Long> sizeOf(Path path) {
+        return fileObservations.observe("stat", Mono.fromCallable(() -> {
+                    if (!Files.isDirectory(path)) {
+                        return Files.size(path);
+                    }
+                    try (Stream<Path> files = Files.walk(path)) {
+                        return files.filter(Files::isRegularFile).mapToLong(file -> file.toFile().length()).sum();
+                    }
+                })
+                .subscribeOn(ioScheduler));
+    }
+
+    /*HLS renditions encoded before ladders were chosen per video used the default one*/
+    private List<HlsRung> ladderOf(Rendition hls) {
+        return hls.getLadder() == null ? FmmpegUtil.DEFAULT_HLS_LADDER : hls.getLadder();
+    }
+
+    private Map<String, String> withPreset(Map<String, String> params, EncoderSettings settings) {
+        if (settings.preset() == null) {
+            return params;
+        }
+        Map<String, String> withPreset = new HashMap<>(params);
+        withPreset.put("preset", settings.preset());
+        return withPreset;
+    }
+
+    private int findRungIndex(List<HlsRung> ladder, String bitrate) {
+        for (int i = 0; i < ladder.size(); i++) {
+            if (ladder.get(i).bitrate().equals(bitrate)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Encodes a new rendition of the untouched original as a cancellable job and links it to the video
+     * once it is complete. Every rendition has its own output and scratch paths, so several renditions
+     * of one video can be encoded at the same time.
+     */
+    private Mono<ResponseEntity<Map<String, Boolean>>> createRendition(Video video, JobOperation operation, Map<String, String> params,
+                                                                      String format, Function<Path, Mono<Void>> encoder) {
+        return createRendition(video, operation, params, null, format, encoder);
+    }
+
+    private Mono<ResponseEntity<Map<String, Boolean>>> createRendition(Video video, JobOperation operation, Map<String, String> params,
+                                                                      List<HlsRung> ladder, String format,
+                                                                      Function<Path, Mono<Void>> encoder) {
+        String jobId = UUID.randomUUID().toString();
+        String renditionId = UUID.randomUUID().toString();
+        String suffix = HLS_FORMAT.equals(format) ? "_hls" : "." + format;
+        Path outputPath = Paths.get("videos", video.getId() + "_" + renditionId + suffix);
+        Path partialPath = ffmpegUtil.partialPath(outputPath);
+
+        return videoRepository.findAndStartJobById(video.getId(), jobId)
+                .then(jobService.run(jobId, video.getId(), operation, admissionService.estimateSeconds(video, operation),
+                        List.of(partialPath, ffmpegUtil.chunkDirectory(partialPath)), encoder.apply(outputPath)))
+                .then(sizeOf(outputPath))
+                .map(sizeBytes -> Rendition.builder()
+                        .id(renditionId)
+                        .operation(operation)
+                        .params(params)
+                        .format(format)
+                        .path(outputPath.toString())
+                        .sizeBytes(sizeBytes)
+                        .createdAt(Instant.now())
+                        .ladder(ladder)
+                        .build())
+                .flatMap(rendition -> videoRepository.findAndPushRenditionById(video.getId(), rendition, rendition.getPath()))
+                .then(videoRepository.findAndFinishJobByIdAndJobIds(video.getId(), jobId, true))
+                .doOnSuccess(ignored -> log.info("{} rendition {} created for video {}", operation, renditionId, video.getId()))
+                .thenReturn(ResponseEntity.ok(Map.of("success", true)))
+                .onErrorResume(e -> {
+                    log.error("{} failed, ID: {}", operation, video.getId(), e);
+                    return handleConversionError(video.getId(), jobId, e);
+                })
+                // a cancelled subscription never reaches onErrorResume; only a job still running on the video is finished
+                .doOnCancel(() -> videoRepository.findAndFinishJobByIdAndJobIds(video.getId(), jobId, null)
+                        .subscribe(updated -> log.info("{} job {} for video {} was cancelled", operation, jobId, video.getId()),
+                                e -> log.warn("Failed to reset video {} after cancelling job {}", video.getId(), jobId, e)));
+    }
+
+    /*jobId is null for requests rejected before a job was started*/
+    private Mono<ResponseEntity<Map<String, Boolean>>> handleConversionError(String id, String jobId, Throwable error) {
+        boolean cancelled = error instanceof JobCancelledException;
+        Mono<Long> finish = jobId == null
+                ? Mono.empty()
+                : videoRepository.findAndFinishJobByIdAndJobIds(id, jobId, cancelled ? null : false);
+        return finish
+                .thenReturn(cancelled
+                        ? ResponseEntity.status(HttpStatus.CONFLICT).body(Map.of("cancelled", true))
+                        : ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(Map.of("error", false)));
+    }
+
+    private record StoredFile(Path path, String filename, String tag) {
     }
 }
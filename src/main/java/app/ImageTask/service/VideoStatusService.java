@@ -0,0 +1,227 @@
+package app.ImageTask.service;
+
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.domain.dto.VideoStatusDto;
+import app.ImageTask.domain.entity.Video;
+import app.ImageTask.repository.VideoRepository;
+import app.ImageTask.util.exception.ResourceNotFoundException;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.BsonDocument;
+import org.bson.BsonValue;
+import org.bson.Document;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ChangeStreamEvent;
+import org.springframework.data.mongodb.core.ReactiveMongoTemplate;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.util.retry.Retry;
+
+import jakarta.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pushes status changes of videos to subscribers. A single change stream on the {@code videos} collection,
+ * filtered on the server to updates of the status fields and deletions, serves every subscriber; events
+ * are routed in-process by video id, so the cost per event is the number of watchers of that video.
+ * A subscriber registers before the current state is read, so no change between the read and the
+ * first event is lost. Needs a replica set, like every change stream.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class VideoStatusService {
+
+    private static final List<String> STATUS_FIELDS = List.of("processing", "processingSuccess", "jobId");
+
+    private final ReactiveMongoTemplate reactiveMongoTemplate;
+    private final VideoRepository videoRepository;
+    private final VariableConfig variableConfig;
+
+    private final Map<String, Set<Sinks.Many<StatusChange>>> watchers = new ConcurrentHashMap<>();
+    private final AtomicReference<BsonValue> resumeToken = new AtomicReference<>();
+    private volatile Disposable changeStream;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        changeStream = Flux.defer(this::listen)
+                .doOnNext(event -> resumeToken.set(event.getResumeToken()))
+                .mapNotNull(this::toStatusChange)
+                .retryWhen(Retry.backoff(Long.MAX_VALUE, Duration.ofSeconds(1))
+                        .maxBackoff(Duration.ofSeconds(30))
+                        .doBeforeRetry(signal -> log.warn("Video change stream failed, reopening: {}",
+                                signal.failure().getMessage())))
+                .subscribe(this::dispatch, e -> log.error("Video change stream stopped", e));
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (changeStream != null) {
+            changeStream.dispose();
+        }
+    }
+
+    /*Current status first, then every change until the video is deleted*/
+    public Flux<VideoStatusDto> watch(String id) {
+        return Flux.defer(() -> {
+            Sinks.Many<StatusChange> sink = Sinks.many().unicast().onBackpressureBuffer();
+            watchers.computeIfAbsent(id, key -> ConcurrentHashMap.newKeySet()).add(sink);
+
+            return videoRepository.findById(id)
+                    .switchIfEmpty(Mono.error(new ResourceNotFoundException("Video not found")))
+                    .map(this::toStatus)
+                    .flatMapMany(current -> sink.asFlux()
+                            .scan(current, this::apply))
+                    .takeUntil(VideoStatusDto::isDeleted)
+                    .distinctUntilChanged()
+                    .doFinally(signal -> unregister(id, sink));
+        });
+    }
+
+    /*SSE stream of watch(id); comment events keep idle connections open through proxies*/
+    public Flux<ServerSentEvent<VideoStatusDto>> statusEvents(String id) {
+        return watch(id)
+                .map(status -> ServerSentEvent.builder(status).event("status").id(status.getId()).build())
+                .publish(events -> Flux.merge(events, Flux.interval(variableConfig.STATUS_HEARTBEAT)
+                        .map(tick -> ServerSentEvent.<VideoStatusDto>builder().comment("heartbeat").build())
+                        .takeUntilOther(events.then())));
+    }
+
+    public int watcherCount() {
+        return watchers.values().stream().mapToInt(Set::size).sum();
+    }
+
+    private Flux<ChangeStreamEvent<Document>> listen() {
+        Document match = new Document("$match", new Document("$or", List.of(
+                new Document("operationType", new Document("$in", List.of("delete", "replace"))),
+                new Document("updateDescription.removedFields", new Document("$in", STATUS_FIELDS)),
+                new Document("$or", STATUS_FIELDS.stream()
+                        .map(field -> new Document("updateDescription.updatedFields." + field, new Document("$exists", true)))
+                        .toList()))));
+
+        return reactiveMongoTemplate.changeStream(Document.class)
+                .watchCollection(Video.class)
+                .withOptions(options -> {
+                    options.filter(match);
+                    BsonValue token = resumeToken.get();
+                    if (token != null) {
+                        options.resumeAfter(token);
+                    }
+                })
+                .listen();
+    }
+
+    private StatusChange toStatusChange(ChangeStreamEvent<Document> event) {
+        var raw = event.getRaw();
+        if (raw == null || raw.getDocumentKey() == null) {
+            return null;
+        }
+        String id = raw.getDocumentKey().get("_id").isString()
+                ? raw.getDocumentKey().getString("_id").getValue()
+                : raw.getDocumentKey().get("_id").toString();
+
+        return switch (raw.getOperationType()) {
+            case DELETE -> new StatusChange(id, true, Map.of(), List.of());
+            case REPLACE -> {
+                Document document = event.getBody();
+                Map<String, Object> fields = new HashMap<>();
+                List<String> removed = new ArrayList<>();
+                for (String field : STATUS_FIELDS) {
+                    if (document != null && document.get(field) != null) {
+                        fields.put(field, document.get(field));
+                    } else {
+                        removed.add(field);
+                    }
+                }
+                yield new StatusChange(id, false, fields, removed);
+            }
+            case UPDATE -> {
+                BsonDocument updated = raw.getUpdateDescription().getUpdatedFields();
+                Map<String, Object> fields = new HashMap<>();
+                List<String> removed = new ArrayList<>(raw.getUpdateDescription().getRemovedFields() == null
+                        ? List.of() : raw.getUpdateDescription().getRemovedFields());
+                for (String field : STATUS_FIELDS) {
+                    BsonValue value = updated == null ? null : updated.get(field);
+                    if (value == null) {
+                        continue;
+                    }
+                    if (value.isBoolean()) {
+                        fields.put(field, value.asBoolean().getValue());
+                    } else if (value.isString()) {
+                        fields.put(field, value.asString().getValue());
+                    } else {
+                        removed.add(field);
+                    }
+                }
+                yield new StatusChange(id, false, fields, removed);
+            }
+            default -> null;
+        };
+    }
+
+    private void dispatch(StatusChange change) {
+        Set<Sinks.Many<StatusChange>> subscribers = watchers.get(change.videoId());
+        if (subscribers == null) {
+            return;
+        }
+        for (Sinks.Many<StatusChange> sink : subscribers) {
+            sink.tryEmitNext(change);
+        }
+    }
+
+    private void unregister(String id, Sinks.Many<StatusChange> sink) {
+        watchers.computeIfPresent(id, (key, sinks) -> {
+            sinks.remove(sink);
+            return sinks.isEmpty() ? null : sinks;
+        });
+    }
+
+    private VideoStatusDto toStatus(Video video) {
+        return VideoStatusDto.builder()
+                .id(video.getId())
+                .processing(video.getProcessing())
+                .processingSuccess(video.getProcessingSuccess())
+                .jobId(video.getJobId())
+                .build();
+    }
+
+    private VideoStatusDto apply(VideoStatusDto status, StatusChange change) {
+        if (change.deleted()) {
+            return status.toBuilder().deleted(true).build();
+        }
+        VideoStatusDto.VideoStatusDtoBuilder next = status.toBuilder();
+        for (String field : STATUS_FIELDS) {
+            if (change.removed().contains(field)) {
+                set(next, field, null);
+            } else if (change.fields().containsKey(field)) {
+                set(next, field, change.fields().get(field));
+            }
+        }
+        return next.build();
+    }
+
+    private void set(VideoStatusDto.VideoStatusDtoBuilder builder, String field, Object value) {
+        switch (field) {
+            case "processing" -> builder.processing((Boolean) value);
+            case "processingSuccess" -> builder.processingSuccess((Boolean) value);
+            case "jobId" -> builder.jobId((String) value);
+            default -> { }
+        }
+    }
+
+    /*Status fields changed by one event; removed holds fields that were unset or set to null*/
+    private record StatusChange(String videoId, boolean deleted, Map<String, Object> fields, List<String> removed) {
+    }
+}
@@ -0,0 +1,114 @@
+package app.ImageTask.util;
+
+import app.ImageTask.config.SchedulerConfig;
+import app.ImageTask.config.VariableConfig;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * The cheap storage tier, a directory standing in for an object store: objects are written whole under a
+ * temporary name and published with a rename, and read back as a stream. Objects are keyed by the file
+ * name of the hot copy, which is unique because every file of a video is named after its id. Originals
+ * and renditions are never rewritten, so an object that already exists is never copied again.
+ */
+@Component
+@RequiredArgsConstructor
+public class ColdStorage {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final VariableConfig variableConfig;
+    private final FileObservations fileObservations;
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+
+    /*Copies a hot file or directory to the cold tier; the hot copy is left for the caller to delete*/
+    public Mono<Void> store(Path hotPath) {
+        return fileObservations.observe("tier-store", Mono.fromCallable(() -> {
+                    Path coldPath = location(hotPath);
+                    if (Files.exists(hotPath) && !Files.exists(coldPath)) {
+                        Files.createDirectories(coldPath.getParent());
+                        publish(hotPath, coldPath);
+                    }
+                    return coldPath;
+                })
+                .subscribeOn(ioScheduler)
+                .then());
+    }
+
+    /*Copies an object back to its hot path; the cold copy is kept, so moving the video out again is free*/
+    public Mono<Void> restore(Path hotPath) {
+        return fileObservations.observe("tier-restore", Mono.fromCallable(() -> {
+                    Path coldPath = location(hotPath);
+                    if (Files.exists(coldPath) && !Files.exists(hotPath)) {
+                        Files.createDirectories(hotPath.toAbsolutePath().getParent());
+                        publish(coldPath, hotPath);
+                    }
+                    return hotPath;
+                })
+                .subscribeOn(ioScheduler)
+                .then());
+    }
+
+    public Flux<DataBuffer> read(Path hotPath) {
+        return DataBufferUtils.read(location(hotPath), DefaultDataBufferFactory.sharedInstance, READ_BUFFER_SIZE);
+    }
+
+    public Mono<Instant> lastModified(Path hotPath) {
+        return fileObservations.observe("stat", Mono.fromCallable(() -> Files.getLastModifiedTime(location(hotPath)).toInstant())
+                .subscribeOn(ioScheduler));
+    }
+
+    public Mono<Void> delete(List<Path> hotPaths) {
+        return fileObservations.observe("delete", Mono.fromCallable(() -> {
+                    for (Path hotPath : hotPaths) {
+                        FileSystemUtils.deleteRecursively(location(hotPath));
+                    }
+                    return hotPaths;
+                })
+                .subscribeOn(ioScheduler)
+                .then());
+    }
+
+    private Path location(Path hotPath) {
+        return Paths.get(variableConfig.TIERING_COLD_DIR).resolve(hotPath.getFileName());
+    }
+
+    /*Copies source next to target under a temporary name, keeping modification times, then renames it into place*/
+    private void publish(Path source, Path target) throws IOException {
+        Path partial = target.resolveSibling(target.getFileName() + ".part");
+        FileSystemUtils.deleteRecursively(partial);
+        if (Files.isDirectory(source)) {
+            try (Stream<Path> files = Files.walk(source)) {
+                for (Path file : (Iterable<Path>) files::iterator) {
+                    Path copy = partial.resolve(source.relativize(file).toString());
+                    if (Files.isDirectory(file)) {
+                        Files.createDirectories(copy);
+                    } else {
+                        Files.copy(file, copy, StandardCopyOption.COPY_ATTRIBUTES);
+                    }
+                }
+            }
+        } else {
+            Files.copy(source, partial, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        Files.move(partial, target, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,70 @@
+package app.ImageTask.util;
+
+import app.ImageTask.config.VariableConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.ReactiveHealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Verifies the ffmpeg and ffprobe binaries once, in the background after startup, instead of
+ * running them while the application context is still being built. The cached result is reported
+ * as the {@code ffmpegAvailability} component of {@code /actuator/health}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class FfmpegAvailability implements ReactiveHealthIndicator {
+
+    private final VariableConfig variableConfig;
+    private final ProcessRunner processRunner;
+
+    private Mono<Boolean> check;
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void checkInBackground() {
+        check().subscribe();
+    }
+
+    @Override
+    public Mono<Health> health() {
+        return check().map(available -> (available ? Health.up() : Health.down())
+                .withDetail("ffmpeg", variableConfig.FFMPEG_PATH)
+                .withDetail("ffprobe", variableConfig.FFPROBE_PATH)
+                .build());
+    }
+
+    public synchronized Mono<Boolean> check() {
+        if (check == null) {
+            check = Mono.defer(this::runCheck).cache();
+        }
+        return check;
+    }
+
+    private Mono<Boolean> runCheck() {
+        String ffmpegPath = variableConfig.FFMPEG_PATH;
+        String ffprobePath = variableConfig.FFPROBE_PATH;
+
+        if (ffmpegPath == null || ffmpegPath.isBlank() || ffprobePath == null || ffprobePath.isBlank()) {
+            log.error("FFMPEG_PATH and FFPROBE_PATH environment variables must be set");
+            return Mono.just(false);
+        }
+
+        return processRunner.run("probe", List.of(ffmpegPath, "-version"))
+                .then(processRunner.run("probe", List.of(ffprobePath, "-version")))
+                .map(result -> {
+                    log.info("ffmpeg was initialized");
+                    return true;
+                })
+                .onErrorResume(e -> {
+                    log.error("ffmpeg is not available: {}", e.getMessage());
+                    return Mono.just(false);
+                });
+    }
+}
@@ -0,0 +1,27 @@
+package app.ImageTask.util;
+
+import io.micrometer.observation.ObservationRegistry;
+import lombok.RequiredArgsConstructor;
+import org.springframework.stereotype.Component;
+import reactor.core.observability.micrometer.Micrometer;
+import reactor.core.publisher.Mono;
+
+/**
+ * Wraps blocking file-system calls in {@code file.io} observations tagged with the kind of operation,
+ * so disk time shows up as spans next to the HTTP, Mongo and ffmpeg spans of the same request.
+ * The parent span is taken from the Reactor context.
+ */
+@Component
+@RequiredArgsConstructor
+public class FileObservations {
+
+    public static final String FILE_OBSERVATION = "file.io";
+
+    private final ObservationRegistry observationRegistry;
+
+    public <T> Mono<T> observe(String operation, Mono<T> io) {
+        return io.name(FILE_OBSERVATION)
+                .tag("file.operation", operation)
+                .tap(Micrometer.observation(observationRegistry));
+    }
+}
@@ -1,13 +1,24 @@
 package app.ImageTask.util;
 
+import app.ImageTask.config.SchedulerConfig;
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.domain.dto.EncoderSettings;
+import app.ImageTask.domain.dto.HlsRung;
+import app.ImageTask.domain.dto.MediaInfo;
+import app.ImageTask.domain.dto.PreviewDto;
+import app.ImageTask.domain.dto.PreviewSpec;
+import app.ImageTask.util.exception.InvalidMediaException;
+import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import net.bramp.ffmpeg.FFmpegExecutor;
 import net.bramp.ffmpeg.builder.FFmpegBuilder;
-import net.bramp.ffmpeg.job.FFmpegJob;
-import org.springframework.http.codec.multipart.FilePart;
+import net.bramp.ffmpeg.builder.FFmpegOutputBuilder;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
+import org.springframework.util.FileSystemUtils;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
-import reactor.core.scheduler.Schedulers;
+import reactor.core.scheduler.Scheduler;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
@@ -16,11 +27,16 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -28,8 +44,26 @@ import static com.google.common.io.Files.getFileExtension;
 
 @Slf4j
 @Component
+@RequiredArgsConstructor
 public class FmmpegUtil {
 
+    public static final List<HlsRung> DEFAULT_HLS_LADDER = List.of(
+            new HlsRung("800k", 640, 360),
+            new HlsRung("1200k", 842, 480),
+            new HlsRung("2400k", 1280, 720),
+            new HlsRung("4800k", 1920, 1080),
+            new HlsRung("7200k", 2560, 1440)
+    );
+
+    private static final double KEYFRAME_TOLERANCE_SECONDS = 0.02;
+
+    private final VariableConfig variableConfig;
+    private final ProcessRunner processRunner;
+    private final FileObservations fileObservations;
+    private final KeyframeIndexStore keyframeIndexStore;
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+
     public Mono<String> getFileFormat(String fileName) {
         return Mono.fromCallable(() -> {
                     int lastIndex = fileName.lastIndexOf('.');
@@ -38,7 +72,7 @@ public class FmmpegUtil {
                     }
                     return fileName.substring(lastIndex + 1).toLowerCase();
                 })
-                .subscribeOn(Schedulers.boundedElastic());
+                .subscribeOn(ioScheduler);
     }
 
     public Mono<String> getNameWithoutExtension(String fileName) {
@@ -48,179 +82,420 @@ public class FmmpegUtil {
                 return fileName.substring(0, lastDotIndex);
             }
             return fileName;
-        }).subscribeOn(Schedulers.boundedElastic());
+        }).subscribeOn(ioScheduler);
     }
 
-    public Mono<Void> convertVideoToGif(String filePath, FFmpegExecutor executor) {
-        return Mono.fromCallable(() -> {
-                    Path tempOutputPath = Paths.get(filePath.replace(".mp4", ".gif"));
-                    FFmpegBuilder builder = new FFmpegBuilder()
-                            .setInput(filePath)
-                            .addOutput(tempOutputPath.toString())
-                            .setFormat("gif")
-                            .done();
+    /**
+     * Resolves a preview request against the source. Requested values are capped at the {@code preview.*}
+     * limits, so the cost of a preview depends on those limits and not on the length of the source. Without
+     * a requested start the preview begins at the scene change nearest to a tenth of the video, moved back
+     * to the keyframe before it, so the input seek lands on a frame that is decoded anyway.
+     */
+    public Mono<PreviewSpec> planPreview(String filePath, PreviewDto previewDto) {
+        PreviewDto request = previewDto == null ? new PreviewDto() : previewDto;
+        String format = request.getFormat() == null ? variableConfig.PREVIEW_FORMAT : request.getFormat();
+        double maxDuration = Math.min(orDefault(request.getDurationSeconds(), Integer.MAX_VALUE), variableConfig.PREVIEW_MAX_SECONDS);
+        int fps = Math.min(orDefault(request.getFps(), Integer.MAX_VALUE), variableConfig.PREVIEW_MAX_FPS);
+        int width = Math.min(orDefault(request.getWidth(), Integer.MAX_VALUE), variableConfig.PREVIEW_MAX_WIDTH) / 2 * 2;
+        Double requestedStart = request.getStart() == null ? null : parseTimeToMillis(request.getStart()) / 1000.0;
+
+        return keyframeIndexStore.get(filePath)
+                .map(index -> {
+                    double total = index.durationSeconds();
+                    double start = requestedStart != null ? requestedStart
+                            : total <= maxDuration ? 0
+                            : index.keyframeAtOrBefore(Math.min(index.nearestSceneChange(total / 10), total - maxDuration));
+                    if (total > 0 && start >= total) {
+                        throw new InvalidMediaException("Preview start is beyond the end of the video");
+                    }
+                    double duration = total > 0 ? Math.min(maxDuration, total - start) : maxDuration;
+                    return new PreviewSpec(format, start, duration, fps, width);
+                })
+                .onErrorResume(e -> !(e instanceof InvalidMediaException), e -> {
+                    log.warn("No keyframe index for {}, previewing from the requested start: {}", filePath, e.getMessage());
+                    return Mono.just(new PreviewSpec(format, requestedStart == null ? 0 : requestedStart, maxDuration, fps, width));
+                });
+    }
 
-                    FFmpegJob job = executor.createJob(builder);
-                    job.run();
+    /*One pass over only the previewed range: input seek and -t bound what is decoded, fps and width bound the output*/
+    public Mono<Void> createPreview(String filePath, Path outputPath, PreviewSpec spec) {
+        Path tempOutputPath = partialPath(outputPath);
+        // never upscale; -2 keeps the height even, which libwebp needs
+        String frames = "fps=" + spec.fps() + ",scale='min(" + spec.width() + ",iw)':-2:flags=lanczos";
+        FFmpegOutputBuilder output = new FFmpegBuilder()
+                .addExtraArgs("-ss", formatSeconds(spec.startSeconds()), "-t", formatSeconds(spec.durationSeconds()))
+                .setInput(filePath)
+                .addOutput(tempOutputPath.toString())
+                .addExtraArgs("-an", "-loop", "0");
+        if ("webp".equals(spec.format())) {
+            output.addExtraArgs("-vf", frames, "-c:v", "libwebp", "-lossless", "0", "-q:v", "70", "-f", "webp");
+        } else {
+            // a palette computed from the previewed frames instead of the generic 256-colour one
+            output.addExtraArgs("-vf", frames + ",split[frames][copy];[frames]palettegen=stats_mode=diff[palette];"
+                    + "[copy][palette]paletteuse=dither=bayer:bayer_scale=5:diff_mode=rectangle", "-f", "gif");
+        }
 
-                    return null;
-                }).subscribeOn(Schedulers.boundedElastic())
-                .then();
+        return runFfmpeg("gif", output.done())
+                .then(moveFile(tempOutputPath, outputPath));
     }
 
-    public Mono<Boolean> isMp4File(FilePart file) {
-        return Mono.fromCallable(() -> {
-            String contentType = file.headers().getContentType().toString();
-            String fileExtension = getFileExtension(file.filename());
-            return "video/mp4".equalsIgnoreCase(contentType) && "mp4".equalsIgnoreCase(fileExtension);
-        }).subscribeOn(Schedulers.boundedElastic());
+    private int orDefault(Integer value, int defaultValue) {
+        return value == null ? defaultValue : value;
     }
 
-    public Mono<Void> convertVideo(String filePath, int width, int height, FFmpegExecutor executor) {
+    public Mono<Boolean> isMp4File(String filename, MediaType contentType) {
         return Mono.fromCallable(() -> {
-                    Path tempOutputPath = Paths.get(filePath.replace(".mp4", "_temp.mp4"));
+            String fileExtension = getFileExtension(filename);
+            return contentType != null && "video/mp4".equalsIgnoreCase(contentType.toString())
+                    && "mp4".equalsIgnoreCase(fileExtension);
+        }).subscribeOn(ioScheduler);
+    }
 
-                    FFmpegBuilder builder = new FFmpegBuilder()
-                            .setInput(filePath)
-                            .addOutput(tempOutputPath.toString())
-                            .setVideoResolution(width, height)
-                            .done();
+    public Mono<Void> convertVideo(String filePath, Path outputPath, int width, int height, EncoderSettings settings) {
+        Path tempOutputPath = partialPath(outputPath);
+        List<String> videoArgs = new ArrayList<>(List.of("-c:v", "libx264", "-s", width + "x" + height));
+        videoArgs.addAll(settings.args());
 
-                    FFmpegJob job = executor.createJob(builder);
-                    job.run();
+        FFmpegBuilder builder = new FFmpegBuilder()
+                .setInput(filePath)
+                .addOutput(tempOutputPath.toString())
+                .addExtraArgs(videoArgs.toArray(String[]::new))
+                .done();
 
-                    try {
-                        Files.move(tempOutputPath, Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING);
-                    } catch (IOException e) {
-                        throw new RuntimeException("Failed to move the converted video file", e);
-                    }
-                    return null;
-                })
-                .subscribeOn(Schedulers.boundedElastic())
+        return encodeWholeOrChunked("resize", filePath, tempOutputPath, builder, videoArgs)
+                .then(moveFile(tempOutputPath, outputPath));
+    }
+
+
+    /**
+     * Seeks on the input, so decoding starts at the keyframe before {@code start} instead of the beginning
+     * of the file. A cut that starts on a keyframe is stream-copied; any other start is re-encoded so the
+     * output begins exactly at the requested frame.
+     */
+    public Mono<Void> cutVideoByTime(String filePath, Path outputPath, String start, String end) {
+        return Mono.defer(() -> {
+            Path tempOutputPath = partialPath(outputPath);
+            long startMillis = parseTimeToMillis(start);
+            long endMillis = parseTimeToMillis(end);
+
+            return keyframeIndexStore.get(filePath).flatMap(index -> {
+                boolean onKeyframe = index.isKeyframe(startMillis / 1000.0, KEYFRAME_TOLERANCE_SECONDS);
+                FFmpegOutputBuilder output = new FFmpegBuilder()
+                        .addExtraArgs("-ss", formatSeconds(startMillis / 1000.0))
+                        .setInput(filePath)
+                        .addOutput(tempOutputPath.toString())
+                        .setDuration(endMillis - startMillis, TimeUnit.MILLISECONDS);
+                if (onKeyframe) {
+                    output.addExtraArgs("-c", "copy", "-avoid_negative_ts", "make_zero");
+                    return runCopy("cut", output.done());
+                }
+                return runFfmpeg("cut", output.done());
+            })
+            .then(moveFile(tempOutputPath, outputPath));
+        });
+    }
+
+    public Mono<Void> convertVideoToHLS(String filePath, String outputDir) {
+        FFmpegBuilder builder = new FFmpegBuilder()
+                .setInput(filePath)
+                .addOutput(outputDir + "/index.m3u8")
+                .addExtraArgs("-codec:v", "libx264", "-codec:a", "aac", "-start_number", "0", "-hls_time", "10", "-hls_list_size", "0", "-f", "hls")
+                .done();
+
+        return createDirectories(Paths.get(outputDir))
+                .then(runFfmpeg("hls", builder))
                 .then();
     }
 
 
-    public Mono<Void> cutVideoByTime(String filePath, String start, String end, FFmpegExecutor executor) {
-        return Mono.fromRunnable(() -> {
-                    Path outputPath = Paths.get(filePath.replace(".mp4", "_cut.mp4"));
-                    long startMillis = parseTimeToMillis(start);
-                    long endMillis = parseTimeToMillis(end);
+    public Mono<Void> transcodeVideoWithCodec(String inputFilePath, Path outputPath, String outputCodec, EncoderSettings settings) {
+        Path tempOutputPath = partialPath(outputPath);
+        List<String> videoArgs = new ArrayList<>(List.of("-c:v", outputCodec));
+        videoArgs.addAll(settings.args());
 
-                    FFmpegBuilder builder = new FFmpegBuilder()
-                            .setInput(filePath)
-                            .addOutput(outputPath.toString())
-                            .setStartOffset(startMillis, TimeUnit.MILLISECONDS)
-                            .setDuration(endMillis - startMillis, TimeUnit.MILLISECONDS)
-                            .done();
+        FFmpegBuilder builder = new FFmpegBuilder()
+                .setInput(inputFilePath)
+                .addOutput(tempOutputPath.toString())
+                .addExtraArgs(videoArgs.toArray(String[]::new))
+                .done();
 
-                    FFmpegJob job = executor.createJob(builder);
-                    job.run();
-                    try {
-                        Files.move(outputPath, Paths.get(filePath), StandardCopyOption.REPLACE_EXISTING);
-                    } catch (IOException e) {
-                        throw new RuntimeException("Failed to move the converted video file", e);
+        return Mono.fromCallable(() -> {
+                    if (!Files.exists(Paths.get(inputFilePath))) {
+                        throw new RuntimeException("Input file not found: " + Paths.get(inputFilePath));
                     }
+                    return inputFilePath;
+                }).subscribeOn(ioScheduler)
+                .then(encodeWholeOrChunked("transcode", inputFilePath, tempOutputPath, builder, videoArgs))
+                .doOnSuccess(ignored -> log.info("Video transcoded successfully to codec: {}", outputCodec))
+                .then(moveFile(tempOutputPath, outputPath));
+    }
 
-                }).subscribeOn(Schedulers.boundedElastic())
-                .then();
+    /*Outputs are written under this name and renamed into place once complete, so readers never see a partial file*/
+    public Path partialPath(Path outputPath) {
+        String name = outputPath.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        return extension > 0
+                ? outputPath.resolveSibling(name.substring(0, extension) + "_temp" + name.substring(extension))
+                : outputPath.resolveSibling(name + "_temp");
     }
 
-    public Mono<Void> convertVideoToHLS(String filePath, String outputDir, FFmpegExecutor executor) {
-        return Mono.fromRunnable(() -> {
-            try {
-                Files.createDirectories(Paths.get(outputDir));
-                FFmpegBuilder builder = new FFmpegBuilder()
-                        .setInput(filePath)
-                        .addOutput(outputDir + "/index.m3u8")
-                        .addExtraArgs("-codec:v", "libx264", "-codec:a", "aac", "-start_number", "0", "-hls_time", "10", "-hls_list_size", "0", "-f", "hls")
-                        .done();
-                FFmpegJob job = executor.createJob(builder);
-                job.run();
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to create directories for HLS output", e);
-            }
-        }).subscribeOn(Schedulers.boundedElastic()).then();
+    /*Directory with the intermediate chunks of a split-and-stitch encode into outputPath*/
+    public Path chunkDirectory(Path outputPath) {
+        String name = outputPath.getFileName().toString();
+        int extension = name.lastIndexOf('.');
+        return outputPath.resolveSibling((extension > 0 ? name.substring(0, extension) : name) + "_chunks");
     }
 
+    /**
+     * Split-and-stitch encode: the video stream is cut without re-encoding at keyframes into {@code chunks}
+     * GOP-aligned parts, the parts are encoded concurrently on the encoder pool with {@code videoArgs},
+     * and the results are joined with the concat demuxer while the source audio is copied back in.
+     */
+    public Mono<Void> encodeChunked(String operation, String filePath, Path outputPath, List<String> videoArgs, int chunks) {
+        Path workDir = chunkDirectory(outputPath);
 
-    public Mono<Void> transcodeVideoWithCodec(String inputFilePath, String outputCodec) {
-        return Mono.fromCallable(() -> {
+        return keyframeIndexStore.get(filePath)
+                .flatMap(index -> {
+                    double[] splitTimes = index.splitPoints(chunks);
+                    log.info("{}: encoding {} in {} chunks", operation, filePath, splitTimes.length + 1);
 
-            Path outputFilePath = Paths.get(inputFilePath.replace(".mp4", "_transcoded.mp4"));
+                    FFmpegBuilder split = new FFmpegBuilder()
+                            .setInput(filePath)
+                            .addOutput(workDir.resolve("chunk_%03d.mp4").toString())
+                            .setFormat("segment")
+                            .addExtraArgs("-map", "0:v:0", "-c", "copy", "-reset_timestamps", "1",
+                                    "-segment_times", splitTimes.length == 0 ? String.valueOf(index.durationSeconds()) : joinSeconds(splitTimes))
+                            .done();
 
-            if (!Files.exists(Paths.get(inputFilePath))) {
-                throw new RuntimeException("Input file not found: " + Paths.get(inputFilePath));
-            }
+                    return deleteDirectory(workDir)
+                            .then(createDirectories(workDir))
+                            .then(runCopy(operation, split));
+                })
+                .then(listChunks(workDir))
+                .flatMapMany(Flux::fromIterable)
+                .flatMapSequential(chunk -> {
+                    Path encoded = workDir.resolve("encoded_" + chunk.getFileName());
+                    FFmpegBuilder encode = new FFmpegBuilder()
+                            .setInput(chunk.toString())
+                            .addOutput(encoded.toString())
+                            .addExtraArgs("-an")
+                            .addExtraArgs(videoArgs.toArray(String[]::new))
+                            .done();
+                    return runFfmpeg(operation, encode).thenReturn(encoded);
+                }, Math.max(1, chunks))
+                .collectList()
+                .flatMap(encoded -> writeConcatList(workDir, encoded))
+                .flatMap(concatList -> {
+                    // the concat list is input 0 and the untouched source, for its audio, input 1
+                    FFmpegBuilder concat = new FFmpegBuilder()
+                            .addExtraArgs("-f", "concat", "-safe", "0", "-i", concatList.toString())
+                            .setInput(filePath)
+                            .addOutput(outputPath.toString())
+                            .addExtraArgs("-map", "0:v", "-map", "1:a?", "-c", "copy")
+                            .done();
+                    return runCopy(operation, concat);
+                })
+                .then(deleteDirectory(workDir));
+    }
 
-            ProcessBuilder processBuilder = new ProcessBuilder(
-                    "ffmpeg",
-                    "-i", inputFilePath,
-                    "-c:v", outputCodec,
-                    outputFilePath.toString()
-            );
-            processBuilder.redirectErrorStream(true);
-
-            try {
-                Process process = processBuilder.start();
-                boolean completed = process.waitFor(30, TimeUnit.MINUTES);
-                if (completed) {
-                    int exitCode = process.exitValue();
-                    if (exitCode == 0) {
-                        log.info("Video transcoded successfully to codec: {}", outputCodec);
-                        Files.move(outputFilePath, Paths.get(inputFilePath), StandardCopyOption.REPLACE_EXISTING);
-                    } else {
-                        throw new RuntimeException("FFmpeg process exited with error code: " + exitCode);
-                    }
-                } else {
-                    process.destroyForcibly();
-                    throw new RuntimeException("FFmpeg process timed out");
-                }
-            } catch (IOException | InterruptedException e) {
-                throw new RuntimeException("Error running FFmpeg process", e);
-            }
-            return null;
-        }).subscribeOn(Schedulers.boundedElastic()).then();
+    private Mono<Void> encodeWholeOrChunked(String operation, String filePath, Path outputPath, FFmpegBuilder builder,
+                                           List<String> videoArgs) {
+        if (!variableConfig.CHUNKED_ENCODING_ENABLED || variableConfig.CHUNKED_ENCODING_CHUNKS < 2) {
+            return runFfmpeg(operation, builder).then();
+        }
+        return keyframeIndexStore.get(filePath)
+                .flatMap(index -> index.durationSeconds() >= variableConfig.CHUNKED_ENCODING_MIN_SECONDS
+                        ? encodeChunked(operation, filePath, outputPath, videoArgs, variableConfig.CHUNKED_ENCODING_CHUNKS)
+                        : runFfmpeg(operation, builder).then());
     }
 
-    public Mono<Void> convertVideoToHLSWithMultiBitrate(String filePath, String outputDir, FFmpegExecutor executor) {
-        return Mono.fromRunnable(() -> {
-            try {
-                String[] bitrates = {"800k", "1200k", "2400k", "4800k", "7200k"};
-                String[] resolutions = {"640:360", "842:480", "1280:720", "1920:1080", "2560:1440"};
+    private Mono<List<Path>> listChunks(Path workDir) {
+        return fileObservations.observe("list", Mono.fromCallable(() -> {
+                    try (Stream<Path> files = Files.list(workDir)) {
+                        return files.filter(path -> path.getFileName().toString().startsWith("chunk_"))
+                                .sorted()
+                                .toList();
+                    }
+                })
+                .subscribeOn(ioScheduler));
+    }
 
+    private Mono<Path> writeConcatList(Path workDir, List<Path> encodedChunks) {
+        return fileObservations.observe("write", Mono.fromCallable(() -> {
+                    Path concatList = workDir.resolve("concat.txt");
+                    List<String> lines = encodedChunks.stream()
+                            .map(chunk -> "file '" + chunk.toAbsolutePath().toString().replace("'", "'\\''") + "'")
+                            .toList();
+                    return Files.write(concatList, lines);
+                })
+                .subscribeOn(ioScheduler));
+    }
 
-                for (int i = 0; i < bitrates.length; i++) {
-                    Files.createDirectories(Paths.get(outputDir, "stream_" + i));
+    private String joinSeconds(double[] seconds) {
+        return Arrays.stream(seconds).mapToObj(this::formatSeconds).collect(Collectors.joining(","));
+    }
 
+    /*Stream i of the output encodes rung i of the ladder*/
+    public Mono<Void> convertVideoToHLSWithMultiBitrate(String filePath, Path outputPath, List<HlsRung> ladder, EncoderSettings settings) {
+        Path tempOutputPath = partialPath(outputPath);
+        String outputDir = tempOutputPath.toString();
+        FFmpegBuilder masterBuilder = new FFmpegBuilder()
+                .setInput(filePath)
+                .addOutput(outputDir + "/master.m3u8")
+                .addExtraArgs("-codec", "copy", "-start_number", "0", "-hls_time", "10", "-hls_list_size", "0", "-f", "hls",
+                        "-master_pl_name", "master.m3u8",
+                        "-var_stream_map", "v:0,a:0")
+                .done();
+
+        return Flux.range(0, ladder.size())
+                .concatMap(i -> {
+                    HlsRung rung = ladder.get(i);
                     FFmpegBuilder builder = new FFmpegBuilder()
                             .setInput(filePath)
                             .addOutput(outputDir + "/stream_" + i + "/index.m3u8")
-                            .addExtraArgs("-codec:v", "libx264", "-codec:a", "aac", "-b:v", bitrates[i], "-vf", "scale=" + resolutions[i],
-                                    "-start_number", "0", "-hls_time", "10", "-hls_list_size", "0", "-f", "hls")
+                            .addExtraArgs("-codec:v", "libx264", "-codec:a", "aac", "-b:v", rung.bitrate(), "-vf", "scale=" + rung.scale())
+                            .addExtraArgs(presetArgs(settings))
+                            .addExtraArgs("-start_number", "0", "-hls_time", "10", "-hls_list_size", "0", "-f", "hls")
                             .done();
 
-                    FFmpegJob job = executor.createJob(builder);
-                    job.run();
-                }
+                    return createDirectories(Paths.get(outputDir, "stream_" + i))
+                            .then(runFfmpeg("hls", builder));
+                })
+                .then(runFfmpeg("hls", masterBuilder))
+                .then(moveFile(tempOutputPath, outputPath));
+    }
 
-                FFmpegBuilder masterBuilder = new FFmpegBuilder()
-                        .setInput(filePath)
-                        .addOutput(outputDir + "/master.m3u8")
-                        .addExtraArgs("-codec", "copy", "-start_number", "0", "-hls_time", "10", "-hls_list_size", "0", "-f", "hls",
-                                "-master_pl_name", "master.m3u8",
-                                "-var_stream_map", "v:0,a:0")
-                        .done();
+    /*Encodes a single HLS segment using input seeking, so only the requested time range is decoded*/
+    public Mono<Void> encodeHlsSegment(String filePath, Path outputPath, HlsRung rung, double startSeconds,
+                                       double durationSeconds, EncoderSettings settings) {
+        Path tempOutputPath = outputPath.resolveSibling(outputPath.getFileName() + ".part");
+        String start = formatSeconds(startSeconds);
+
+        FFmpegBuilder builder = new FFmpegBuilder()
+                .addExtraArgs("-ss", start)
+                .setInput(filePath)
+                .addOutput(tempOutputPath.toString())
+                .setFormat("mpegts")
+                .addExtraArgs("-t", formatSeconds(durationSeconds),
+                        "-codec:v", "libx264", "-codec:a", "aac", "-b:v", rung.bitrate(), "-vf", "scale=" + rung.scale(),
+                        "-output_ts_offset", start, "-muxdelay", "0")
+                .addExtraArgs(presetArgs(settings))
+                .done();
+
+        return createDirectories(outputPath.getParent())
+                .then(runFfmpeg("hls-segment", builder))
+                .then(moveFile(tempOutputPath, outputPath));
+    }
 
-                FFmpegJob masterJob = executor.createJob(masterBuilder);
-                masterJob.run();
+    public Mono<MediaInfo> probeMediaInfo(String filePath) {
+        List<String> command = List.of(variableConfig.FFPROBE_PATH, "-v", "error", "-select_streams", "v:0",
+                "-show_entries", "stream=width,height,bit_rate:format=duration,bit_rate", "-of", "default=noprint_wrappers=1", filePath);
+
+        return processRunner.run("probe", command)
+                .map(result -> {
+                    Map<String, String> values = new HashMap<>();
+                    for (String line : result.outputTail()) {
+                        int separator = line.indexOf('=');
+                        if (separator > 0 && !line.endsWith("=N/A")) {
+                            // the stream bit_rate comes first and is kept over the container one
+                            values.putIfAbsent(line.substring(0, separator).trim(), line.substring(separator + 1).trim());
+                        }
+                    }
+                    if (!values.containsKey("duration") || !values.containsKey("width")) {
+                        throw new IllegalArgumentException("Unable to probe video stream of " + filePath);
+                    }
+                    return new MediaInfo(Double.parseDouble(values.get("duration")),
+                            Integer.parseInt(values.get("width")),
+                            Integer.parseInt(values.get("height")),
+                            Long.parseLong(values.getOrDefault("bit_rate", "0")));
+                });
+    }
 
-            } catch (IOException e) {
-                throw new RuntimeException("Failed to create directories for HLS output", e);
-            }
-        }).subscribeOn(Schedulers.boundedElastic()).then();
+    /*Rungs carry their own bitrate, so only the preset of the settings applies*/
+    private String[] presetArgs(EncoderSettings settings) {
+        return settings.preset() == null ? new String[0] : new String[]{"-preset", settings.preset()};
+    }
+
+    private Mono<ProcessResult> runFfmpeg(String operation, FFmpegBuilder builder) {
+        return Mono.defer(() -> processRunner.encode(operation, ffmpegCommand(builder)));
+    }
+
+    /*Stream-copy runs are I/O bound and don't take an encoder slot*/
+    private Mono<ProcessResult> runCopy(String operation, FFmpegBuilder builder) {
+        return Mono.defer(() -> processRunner.run(operation, ffmpegCommand(builder)));
+    }
+
+    private List<String> ffmpegCommand(FFmpegBuilder builder) {
+        List<String> command = new ArrayList<>();
+        command.add(variableConfig.FFMPEG_PATH);
+        command.addAll(builder.build());
+        return command;
+    }
+
+    private Mono<Void> deleteDirectory(Path directory) {
+        return fileObservations.observe("delete", Mono.fromCallable(() -> FileSystemUtils.deleteRecursively(directory))
+                .subscribeOn(ioScheduler)
+                .then());
+    }
+
+    private Mono<Void> moveFile(Path source, Path target) {
+        return fileObservations.observe("move", Mono.fromCallable(() -> {
+                    try {
+                        return Files.move(source, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to move the converted video file", e);
+                    }
+                })
+                .subscribeOn(ioScheduler)
+                .then());
+    }
+
+    private Mono<Void> createDirectories(Path directory) {
+        return fileObservations.observe("mkdir", Mono.fromCallable(() -> {
+                    try {
+                        return Files.createDirectories(directory);
+                    } catch (IOException e) {
+                        throw new RuntimeException("Failed to create directories for output", e);
+                    }
+                })
+                .subscribeOn(ioScheduler)
+                .then());
     }
 
+    public String buildHlsMasterPlaylist(List<HlsRung> ladder) {
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n");
+        for (HlsRung rung : ladder) {
+            playlist.append("#EXT-X-STREAM-INF:BANDWIDTH=").append(rung.bandwidth())
+                    .append(",RESOLUTION=").append(rung.width()).append('x').append(rung.height()).append('\n')
+                    .append(rung.bitrate()).append("/index.m3u8\n");
+        }
+        return playlist.toString();
+    }
+
+    /*Segment i spans starts[i] to starts[i + 1], the last one ends at the duration*/
+    public String buildHlsMediaPlaylist(double[] starts, double durationSeconds) {
+        double longest = 0;
+        for (int i = 0; i < starts.length; i++) {
+            longest = Math.max(longest, hlsSegmentEnd(starts, i, durationSeconds) - starts[i]);
+        }
+        StringBuilder playlist = new StringBuilder("#EXTM3U\n#EXT-X-VERSION:3\n")
+                .append("#EXT-X-TARGETDURATION:").append((int) Math.ceil(longest)).append('\n')
+                .append("#EXT-X-MEDIA-SEQUENCE:0\n")
+                .append("#EXT-X-PLAYLIST-TYPE:VOD\n");
+        for (int i = 0; i < starts.length; i++) {
+            playlist.append("#EXTINF:").append(formatSeconds(hlsSegmentEnd(starts, i, durationSeconds) - starts[i])).append(",\n")
+                    .append("segment_").append(i).append(".ts\n");
+        }
+        return playlist.append("#EXT-X-ENDLIST\n").toString();
+    }
+
+    public double hlsSegmentEnd(double[] starts, int segment, double durationSeconds) {
+        return segment + 1 < starts.length ? starts[segment + 1] : durationSeconds;
+    }
+
+    private String formatSeconds(double seconds) {
+        return String.format(Locale.ROOT, "%.6f", seconds);
+    }
 
     private long parseTimeToMillis(String time) {
         String[] parts = time.split(":");
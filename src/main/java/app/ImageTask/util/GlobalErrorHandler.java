@@ -1,8 +1,14 @@
 package app.ImageTask.util;
 
+import app.ImageTask.util.exception.IdempotencyConflictException;
+import app.ImageTask.util.exception.InvalidMediaException;
+import app.ImageTask.util.exception.PayloadTooLargeException;
 import app.ImageTask.util.exception.ResourceNotFoundException;
+import app.ImageTask.util.exception.TooManyRequestsException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.io.buffer.DataBufferLimitException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ExceptionHandler;
@@ -32,6 +38,43 @@ public class GlobalErrorHandler {
                 .body(Map.of("error", "Resource not found")));
     }
 
+    @ExceptionHandler(InvalidMediaException.class)
+    public Mono<ResponseEntity<Map<String, String>>> handleInvalidMediaException(InvalidMediaException e) {
+        log.error("Invalid media: {}", e.getMessage());
+        return Mono.just(ResponseEntity.status(HttpStatus.BAD_REQUEST)
+                .body(Map.of("error", e.getMessage())));
+    }
+
+    @ExceptionHandler(PayloadTooLargeException.class)
+    public Mono<ResponseEntity<Map<String, String>>> handlePayloadTooLargeException(PayloadTooLargeException e) {
+        log.error("Payload too large: {}", e.getMessage());
+        return Mono.just(ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(Map.of("error", e.getMessage())));
+    }
+
+    /*A multipart form field or part header went over the spring.webflux.multipart.* limits*/
+    @ExceptionHandler(DataBufferLimitException.class)
+    public Mono<ResponseEntity<Map<String, String>>> handleDataBufferLimitException(DataBufferLimitException e) {
+        log.error("Payload too large: {}", e.getMessage());
+        return Mono.just(ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                .body(Map.of("error", e.getMessage())));
+    }
+
+    @ExceptionHandler(TooManyRequestsException.class)
+    public Mono<ResponseEntity<Map<String, String>>> handleTooManyRequestsException(TooManyRequestsException e) {
+        log.warn("Request rejected: {}, retry after {} s", e.getMessage(), e.getRetryAfterSeconds());
+        return Mono.just(ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                .body(Map.of("error", e.getMessage())));
+    }
+
+    @ExceptionHandler(IdempotencyConflictException.class)
+    public Mono<ResponseEntity<Map<String, String>>> handleIdempotencyConflictException(IdempotencyConflictException e) {
+        log.warn("Idempotency key conflict: {}", e.getMessage());
+        return Mono.just(ResponseEntity.status(e.isInProgress() ? HttpStatus.CONFLICT : HttpStatus.UNPROCESSABLE_ENTITY)
+                .body(Map.of("error", e.getMessage())));
+    }
+
     @ExceptionHandler(Exception.class)
     public Mono<ResponseEntity<Map<String, String>>> handleGenericException(Exception e) {
         log.error("Unexpected error occurred: {}", e.getMessage(), e);
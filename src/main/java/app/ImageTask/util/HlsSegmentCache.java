@@ -0,0 +1,199 @@
+package app.ImageTask.util;
+
+import app.ImageTask.config.SchedulerConfig;
+import app.ImageTask.config.VariableConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+/**
+ * Disk cache for HLS segments encoded on demand. Entries are evicted in LRU order
+ * once the total size exceeds {@code hls.cache.max-bytes}, except ones handed out within
+ * {@code hls.cache.eviction-grace}, which a response may still be about to open; concurrent
+ * requests for a segment that is still being encoded share the same encode.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class HlsSegmentCache {
+
+    private final VariableConfig variableConfig;
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+
+    private final LinkedHashMap<Path, CachedSegment> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Path, Mono<Path>> inFlight = new ConcurrentHashMap<>();
+    private long totalBytes;
+
+    /*Indexes segments left on disk by a previous run; done after startup so it doesn't delay readiness*/
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadExisting() {
+        Mono.fromCallable(() -> {
+                    Path root = root();
+                    LinkedHashMap<Path, CachedSegment> found = new LinkedHashMap<>();
+                    if (!Files.isDirectory(root)) {
+                        return found;
+                    }
+                    try (Stream<Path> files = Files.walk(root)) {
+                        List<Path> segments = files.filter(Files::isRegularFile)
+                                .filter(path -> path.toString().endsWith(".ts"))
+                                .sorted(Comparator.comparingLong(this::lastModified))
+                                .toList();
+                        for (Path segment : segments) {
+                            // left by a previous run, so nothing is serving them
+                            found.put(segment, new CachedSegment(Files.size(segment), 0L));
+                        }
+                        return found;
+                    }
+                })
+                .subscribeOn(ioScheduler)
+                .map(this::merge)
+                .subscribe(count -> log.info("HLS segment cache loaded {} segments, {} bytes", count, totalBytes),
+                        e -> log.warn("Failed to load HLS segment cache", e));
+    }
+
+    /*Segments served while indexing ran are already recorded and stay the most recently used; the rest go before them*/
+    private int merge(LinkedHashMap<Path, CachedSegment> found) {
+        synchronized (this) {
+            LinkedHashMap<Path, CachedSegment> current = new LinkedHashMap<>(entries);
+            found.keySet().removeAll(current.keySet());
+            entries.clear();
+            entries.putAll(found);
+            entries.putAll(current);
+            found.values().forEach(entry -> totalBytes += entry.size());
+        }
+        evict(null);
+        return found.size();
+    }
+
+    public Path segmentPath(String videoId, String bitrate, int index) {
+        return videoDirectory(videoId).resolve(bitrate).resolve("segment_" + index + ".ts");
+    }
+
+    /**
+     * Returns the cached segment, encoding it with {@code encoder} on a miss. The encoder
+     * receives the target path and must have written it completely when it completes.
+     */
+    public Mono<Path> getOrEncode(Path segment, Function<Path, Mono<Void>> encoder) {
+        // the lookup stats the file, so hits are checked on the I/O scheduler, never on the event loop
+        return inFlight.computeIfAbsent(segment, key -> Mono.fromCallable(() -> cached(key))
+                .subscribeOn(ioScheduler)
+                .switchIfEmpty(Mono.defer(() -> encoder.apply(key))
+                        .then(Mono.fromCallable(() -> {
+                            record(key, Files.size(key));
+                            return key;
+                        }).subscribeOn(ioScheduler)))
+                .doFinally(signal -> inFlight.remove(key))
+                .cache());
+    }
+
+    /*A segment on disk is complete, since encoders move finished files into place; one not yet indexed is recorded*/
+    private Path cached(Path segment) throws IOException {
+        if (!Files.isRegularFile(segment)) {
+            return null;
+        }
+        record(segment, Files.size(segment));
+        return segment;
+    }
+
+    /*Drops the video's segments from the index without touching disk, the caller deletes the directory*/
+    public Path forgetVideo(String videoId) {
+        Path videoDir = videoDirectory(videoId);
+        synchronized (this) {
+            removeEntries(videoDir);
+        }
+        return videoDir;
+    }
+
+    public Path videoDirectory(String videoId) {
+        return root().resolve(videoId);
+    }
+
+    private void removeEntries(Path videoDir) {
+        Iterator<Map.Entry<Path, CachedSegment>> iterator = entries.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<Path, CachedSegment> entry = iterator.next();
+            if (entry.getKey().startsWith(videoDir)) {
+                totalBytes -= entry.getValue().size();
+                iterator.remove();
+            }
+        }
+    }
+
+    private void record(Path segment, long size) {
+        synchronized (this) {
+            CachedSegment previous = entries.put(segment, new CachedSegment(size, System.currentTimeMillis()));
+            totalBytes += size - (previous == null ? 0 : previous.size());
+        }
+        evict(segment);
+    }
+
+    /*Entries are in access order, so eviction stops at the first one handed out within the grace period:
+    a response may not have opened it yet, and every entry after it is more recent*/
+    private void evict(Path keep) {
+        List<Path> evicted = new ArrayList<>();
+        long servedAfter = System.currentTimeMillis() - variableConfig.HLS_CACHE_EVICTION_GRACE.toMillis();
+        synchronized (this) {
+            Iterator<Map.Entry<Path, CachedSegment>> iterator = entries.entrySet().iterator();
+            while (totalBytes > variableConfig.HLS_CACHE_MAX_BYTES && iterator.hasNext()) {
+                Map.Entry<Path, CachedSegment> eldest = iterator.next();
+                if (eldest.getKey().equals(keep)) {
+                    continue;
+                }
+                if (eldest.getValue().touchedAt() > servedAfter) {
+                    break;
+                }
+                totalBytes -= eldest.getValue().size();
+                iterator.remove();
+                evicted.add(eldest.getKey());
+            }
+        }
+        evicted.forEach(this::deleteQuietly);
+        if (!evicted.isEmpty()) {
+            log.debug("Evicted {} HLS segments, cache size {} bytes", evicted.size(), totalBytes);
+        }
+    }
+
+    private void deleteQuietly(Path segment) {
+        try {
+            Files.deleteIfExists(segment);
+        } catch (IOException e) {
+            log.warn("Failed to delete cached segment {}", segment, e);
+        }
+    }
+
+    private long lastModified(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    private Path root() {
+        return Paths.get(variableConfig.HLS_CACHE_DIR);
+    }
+
+    /*Size on disk and when the segment was last handed out, in epoch millis*/
+    private record CachedSegment(long size, long touchedAt) {
+    }
+}
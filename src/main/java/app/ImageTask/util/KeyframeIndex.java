@@ -0,0 +1,186 @@
+package app.ImageTask.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Keyframe timestamps with their byte offsets and scene-change points of one video, kept in packed
+ * primitive arrays sorted by time so every lookup is a binary search. Stored as a small binary sidecar
+ * next to the video; {@link #scenesIndexed()} is false for indexes built without scene detection.
+ */
+public final class KeyframeIndex {
+
+    private static final int MAGIC = 0x4B465831;
+    private static final int FORMAT_VERSION = 1;
+
+    private final double durationSeconds;
+    private final double[] keyframeTimes;
+    private final long[] keyframeOffsets;
+    private final double[] sceneChanges;
+    private final boolean scenesIndexed;
+
+    public KeyframeIndex(double durationSeconds, double[] keyframeTimes, long[] keyframeOffsets,
+                         double[] sceneChanges, boolean scenesIndexed) {
+        if (keyframeTimes.length != keyframeOffsets.length) {
+            throw new IllegalArgumentException("Keyframe times and offsets differ in length");
+        }
+        this.durationSeconds = durationSeconds;
+        this.keyframeTimes = keyframeTimes;
+        this.keyframeOffsets = keyframeOffsets;
+        this.sceneChanges = sceneChanges;
+        this.scenesIndexed = scenesIndexed;
+    }
+
+    public double durationSeconds() {
+        return durationSeconds;
+    }
+
+    public int keyframeCount() {
+        return keyframeTimes.length;
+    }
+
+    public boolean scenesIndexed() {
+        return scenesIndexed;
+    }
+
+    /*Latest keyframe at or before seconds, 0 when there is none*/
+    public double keyframeAtOrBefore(double seconds) {
+        int index = floorIndex(keyframeTimes, seconds);
+        return index < 0 ? 0 : keyframeTimes[index];
+    }
+
+    /*Earliest keyframe at or after seconds, the duration when there is none*/
+    public double keyframeAtOrAfter(double seconds) {
+        int index = ceilingIndex(keyframeTimes, seconds);
+        return index < keyframeTimes.length ? keyframeTimes[index] : durationSeconds;
+    }
+
+    public long byteOffsetAtOrBefore(double seconds) {
+        int index = floorIndex(keyframeTimes, seconds);
+        return index < 0 ? 0 : keyframeOffsets[index];
+    }
+
+    public boolean isKeyframe(double seconds, double toleranceSeconds) {
+        int index = ceilingIndex(keyframeTimes, seconds - toleranceSeconds);
+        return index < keyframeTimes.length && keyframeTimes[index] <= seconds + toleranceSeconds;
+    }
+
+    /*Scene change closest to seconds, or seconds itself when no scene changes are known*/
+    public double nearestSceneChange(double seconds) {
+        if (sceneChanges.length == 0) {
+            return seconds;
+        }
+        int index = ceilingIndex(sceneChanges, seconds);
+        if (index == sceneChanges.length) {
+            return sceneChanges[index - 1];
+        }
+        if (index > 0 && seconds - sceneChanges[index - 1] <= sceneChanges[index] - seconds) {
+            return sceneChanges[index - 1];
+        }
+        return sceneChanges[index];
+    }
+
+    public double[] sceneChanges() {
+        return sceneChanges.clone();
+    }
+
+    /*First keyframe at or after each even split of the duration, for splitting into parts GOP-aligned pieces*/
+    public double[] splitPoints(int parts) {
+        double[] points = new double[Math.max(0, parts - 1)];
+        int count = 0;
+        double previous = 0;
+        for (int i = 1; i < parts; i++) {
+            int index = ceilingIndex(keyframeTimes, durationSeconds * i / parts);
+            if (index < keyframeTimes.length && keyframeTimes[index] > previous && keyframeTimes[index] < durationSeconds) {
+                previous = keyframeTimes[index];
+                points[count++] = previous;
+            }
+        }
+        return Arrays.copyOf(points, count);
+    }
+
+    /**
+     * Segment start times: a new segment starts at the first keyframe at least {@code targetSeconds} after
+     * the previous start, so every segment begins on a keyframe. Falls back to fixed offsets when no
+     * keyframes are known.
+     */
+    public double[] segmentBoundaries(double targetSeconds) {
+        if (keyframeTimes.length == 0) {
+            int count = Math.max(1, (int) Math.ceil(durationSeconds / targetSeconds));
+            double[] fixed = new double[count];
+            for (int i = 0; i < count; i++) {
+                fixed[i] = i * targetSeconds;
+            }
+            return fixed;
+        }
+        double[] starts = new double[keyframeTimes.length + 1];
+        int count = 0;
+        starts[count++] = 0;
+        for (double keyframe : keyframeTimes) {
+            if (keyframe - starts[count - 1] >= targetSeconds && keyframe < durationSeconds) {
+                starts[count++] = keyframe;
+            }
+        }
+        return Arrays.copyOf(starts, count);
+    }
+
+    public static KeyframeIndex read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) {
+                throw new IOException("Not a keyframe index: " + path);
+            }
+            double duration = in.readDouble();
+            boolean scenesIndexed = in.readBoolean();
+            int keyframes = in.readInt();
+            double[] times = new double[keyframes];
+            long[] offsets = new long[keyframes];
+            for (int i = 0; i < keyframes; i++) {
+                times[i] = in.readDouble();
+            }
+            for (int i = 0; i < keyframes; i++) {
+                offsets[i] = in.readLong();
+            }
+            double[] scenes = new double[in.readInt()];
+            for (int i = 0; i < scenes.length; i++) {
+                scenes[i] = in.readDouble();
+            }
+            return new KeyframeIndex(duration, times, offsets, scenes, scenesIndexed);
+        }
+    }
+
+    public void write(Path path) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeDouble(durationSeconds);
+            out.writeBoolean(scenesIndexed);
+            out.writeInt(keyframeTimes.length);
+            for (double time : keyframeTimes) {
+                out.writeDouble(time);
+            }
+            for (long offset : keyframeOffsets) {
+                out.writeLong(offset);
+            }
+            out.writeInt(sceneChanges.length);
+            for (double scene : sceneChanges) {
+                out.writeDouble(scene);
+            }
+        }
+    }
+
+    private static int floorIndex(double[] values, double key) {
+        int index = Arrays.binarySearch(values, key);
+        return index >= 0 ? index : -index - 2;
+    }
+
+    private static int ceilingIndex(double[] values, double key) {
+        int index = Arrays.binarySearch(values, key);
+        return index >= 0 ? index : -index - 1;
+    }
+}
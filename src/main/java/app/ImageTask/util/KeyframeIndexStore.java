@@ -0,0 +1,180 @@
+package app.ImageTask.util;
+
+import app.ImageTask.config.SchedulerConfig;
+import app.ImageTask.config.VariableConfig;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Builds and loads the {@link KeyframeIndex} sidecar of a video ({@code <video>.kfi}). Originals are never
+ * rewritten, so an index stays valid for the lifetime of its file. {@link #build} runs after upload and
+ * also detects scene changes (a full decode at low resolution on an encoder slot); {@link #get} loads
+ * the sidecar and, when it is missing, builds a keyframes-only index from a packet scan.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class KeyframeIndexStore {
+
+    private static final String SIDECAR_EXTENSION = ".kfi";
+    private static final int MAX_LOADED = 256;
+    private static final Pattern SHOWINFO_PTS = Pattern.compile("Parsed_showinfo.*\\bpts_time:\\s*([0-9.]+)");
+
+    private final VariableConfig variableConfig;
+    private final ProcessRunner processRunner;
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+
+    private final Map<Path, KeyframeIndex> loaded = new LinkedHashMap<>(16, 0.75f, true);
+    private final Map<Flight, Mono<KeyframeIndex>> inFlight = new ConcurrentHashMap<>();
+
+    public static Path sidecarPath(String filePath) {
+        int extension = filePath.lastIndexOf('.');
+        return Paths.get((extension > 0 ? filePath.substring(0, extension) : filePath) + SIDECAR_EXTENSION);
+    }
+
+    public Mono<KeyframeIndex> get(String filePath) {
+        Path sidecar = sidecarPath(filePath);
+        synchronized (loaded) {
+            KeyframeIndex index = loaded.get(sidecar);
+            if (index != null) {
+                return Mono.just(index);
+            }
+        }
+        return Mono.fromCallable(() -> Files.isRegularFile(sidecar) ? KeyframeIndex.read(sidecar) : null)
+                .subscribeOn(ioScheduler)
+                .doOnNext(index -> remember(sidecar, index))
+                .onErrorResume(e -> {
+                    log.warn("Ignoring unreadable keyframe index {}: {}", sidecar, e.getMessage());
+                    return Mono.empty();
+                })
+                .switchIfEmpty(Mono.defer(() -> singleFlight(sidecar, filePath, false)));
+    }
+
+    /*Full index with scene changes; replaces a keyframes-only sidecar*/
+    public Mono<KeyframeIndex> build(String filePath) {
+        return singleFlight(sidecarPath(filePath), filePath, variableConfig.KEYFRAME_INDEX_SCENES_ENABLED);
+    }
+
+    /*A keyframes-only request may join a full build, never the other way round, or the full build would be
+    persisted without scene changes*/
+    private Mono<KeyframeIndex> singleFlight(Path sidecar, String filePath, boolean withScenes) {
+        if (!withScenes) {
+            Mono<KeyframeIndex> full = inFlight.get(new Flight(sidecar, true));
+            if (full != null) {
+                return full;
+            }
+        }
+        return inFlight.computeIfAbsent(new Flight(sidecar, withScenes), key -> Mono.zip(scanPackets(filePath),
+                        withScenes ? detectScenes(filePath) : Mono.just(new double[0]))
+                .map(probe -> new KeyframeIndex(probe.getT1().duration(), probe.getT1().times(), probe.getT1().offsets(),
+                        probe.getT2(), withScenes))
+                .flatMap(index -> Mono.fromCallable(() -> persist(sidecar, index))
+                        .subscribeOn(ioScheduler))
+                .doOnNext(index -> {
+                    remember(sidecar, index);
+                    log.info("Indexed {}: {} keyframes, {} scene changes", filePath, index.keyframeCount(),
+                            index.sceneChanges().length);
+                })
+                .doFinally(signal -> inFlight.remove(key))
+                .cache());
+    }
+
+    /*Both flights of a video write the same sidecar, so writes are serialized and a full index is never
+    replaced by a keyframes-only one that finished later*/
+    private synchronized KeyframeIndex persist(Path sidecar, KeyframeIndex index) throws IOException {
+        if (!index.scenesIndexed() && Files.isRegularFile(sidecar)) {
+            try {
+                KeyframeIndex existing = KeyframeIndex.read(sidecar);
+                if (existing.scenesIndexed()) {
+                    return existing;
+                }
+            } catch (IOException e) {
+                log.warn("Replacing unreadable keyframe index {}: {}", sidecar, e.getMessage());
+            }
+        }
+        Path partial = sidecar.resolveSibling(sidecar.getFileName() + ".part");
+        index.write(partial);
+        Files.move(partial, sidecar, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return index;
+    }
+
+    /*Packets are read without decoding: keyframe pts and byte position, plus the container duration*/
+    private Mono<PacketScan> scanPackets(String filePath) {
+        List<String> command = List.of(variableConfig.FFPROBE_PATH, "-v", "error", "-select_streams", "v:0",
+                "-show_entries", "packet=pts_time,pos,flags:format=duration", "-of", "csv=p=0", filePath);
+
+        return Mono.defer(() -> {
+            List<double[]> keyframes = new ArrayList<>();
+            double[] duration = {0};
+            return processRunner.run("keyframe-probe", command, line -> {
+                        String[] fields = line.trim().split(",");
+                        if (fields.length >= 3 && fields[fields.length - 1].startsWith("K") && !"N/A".equals(fields[0])) {
+                            long offset = "N/A".equals(fields[1]) ? -1 : Long.parseLong(fields[1]);
+                            keyframes.add(new double[]{Double.parseDouble(fields[0]), offset});
+                        } else if (fields.length == 1 && !fields[0].isEmpty() && !"N/A".equals(fields[0])) {
+                            duration[0] = Double.parseDouble(fields[0]);
+                        }
+                    })
+                    .map(result -> {
+                        keyframes.sort((left, right) -> Double.compare(left[0], right[0]));
+                        double[] times = new double[keyframes.size()];
+                        long[] offsets = new long[keyframes.size()];
+                        for (int i = 0; i < times.length; i++) {
+                            times[i] = keyframes.get(i)[0];
+                            offsets[i] = (long) keyframes.get(i)[1];
+                        }
+                        return new PacketScan(duration[0], times, offsets);
+                    });
+        });
+    }
+
+    private Mono<double[]> detectScenes(String filePath) {
+        List<String> command = List.of(variableConfig.FFMPEG_PATH, "-hide_banner", "-nostats", "-i", filePath,
+                "-map", "0:v:0", "-vf", "scale=320:-2,select='gt(scene," + variableConfig.KEYFRAME_INDEX_SCENE_THRESHOLD + ")',showinfo",
+                "-f", "null", "-");
+
+        return Mono.defer(() -> {
+            List<Double> scenes = new ArrayList<>();
+            return processRunner.encode("scene-detect", command, line -> {
+                        Matcher matcher = SHOWINFO_PTS.matcher(line);
+                        if (matcher.find()) {
+                            scenes.add(Double.parseDouble(matcher.group(1)));
+                        }
+                    })
+                    .map(result -> scenes.stream().mapToDouble(Double::doubleValue).sorted().toArray());
+        });
+    }
+
+    private void remember(Path sidecar, KeyframeIndex index) {
+        synchronized (loaded) {
+            loaded.put(sidecar, index);
+            if (loaded.size() > MAX_LOADED) {
+                loaded.remove(loaded.keySet().iterator().next());
+            }
+        }
+    }
+
+    private record PacketScan(double duration, double[] times, long[] offsets) {
+    }
+
+    private record Flight(Path sidecar, boolean withScenes) {
+    }
+}
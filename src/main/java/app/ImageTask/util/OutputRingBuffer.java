@@ -0,0 +1,29 @@
+package app.ImageTask.util;
+
+import java.util.ArrayDeque;
+import java.util.List;
+
+/**
+ * Keeps the last {@code capacity} lines written by an external process for diagnostics.
+ */
+public class OutputRingBuffer {
+
+    private final int capacity;
+    private final ArrayDeque<String> lines;
+
+    public OutputRingBuffer(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.lines = new ArrayDeque<>(this.capacity);
+    }
+
+    public synchronized void add(String line) {
+        if (lines.size() == capacity) {
+            lines.removeFirst();
+        }
+        lines.addLast(line);
+    }
+
+    public synchronized List<String> snapshot() {
+        return List.copyOf(lines);
+    }
+}
@@ -0,0 +1,7 @@
+package app.ImageTask.util;
+
+import java.time.Duration;
+import java.util.List;
+
+public record ProcessResult(String operation, int exitCode, Duration elapsed, List<String> outputTail) {
+}
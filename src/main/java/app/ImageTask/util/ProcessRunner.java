@@ -0,0 +1,239 @@
+package app.ImageTask.util;
+
+import app.ImageTask.config.SchedulerConfig;
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.util.exception.ProcessFailedException;
+import io.micrometer.observation.Observation;
+import io.micrometer.observation.ObservationRegistry;
+import io.micrometer.observation.contextpropagation.ObservationThreadLocalAccessor;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+
+/**
+ * Runs external processes (ffmpeg, ffprobe) for all video operations.
+ * Output is drained asynchronously into a bounded ring buffer so a chatty process can never
+ * block on a full pipe, every run has a per-operation timeout ({@code ffmpeg.timeout.<operation>},
+ * falling back to {@code ffmpeg.timeout.default}), and cancelling the subscription kills the
+ * whole process tree.
+ * Encodes hold a thread of the bounded encoder pool for their whole run, so the pool size is the
+ * number of concurrent ffmpeg encodes; short probes run on the I/O scheduler.
+ * Each run is traced as an {@code ffmpeg.process} observation with the argument summary, the time spent
+ * waiting for a thread and the exit code.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ProcessRunner {
+
+    public static final String PROCESS_OBSERVATION = "ffmpeg.process";
+    /*Context key of a Consumer<CompletableFuture<Void>> told about every run; the future completes once the process has exited*/
+    public static final String PROCESS_EXITS = "process-exits";
+    private static final Duration DEFAULT_TIMEOUT = Duration.ofMinutes(30);
+    private static final int MAX_COMMAND_SUMMARY = 512;
+
+    private final VariableConfig variableConfig;
+    private final Environment environment;
+    private final ObservationRegistry observationRegistry;
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+    @Qualifier(SchedulerConfig.ENCODER_SCHEDULER)
+    private final Scheduler encoderScheduler;
+
+    private final AtomicInteger queuedEncodes = new AtomicInteger();
+
+    public Mono<ProcessResult> run(String operation, List<String> command) {
+        return execute(operation, command, ioScheduler, line -> { }, () -> { });
+    }
+
+    /*Same as run, but every output line is also passed to lineListener, for output longer than the ring buffer*/
+    public Mono<ProcessResult> run(String operation, List<String> command, Consumer<String> lineListener) {
+        return execute(operation, command, ioScheduler, lineListener, () -> { });
+    }
+
+    public Mono<ProcessResult> encode(String operation, List<String> command) {
+        return encode(operation, command, line -> { });
+    }
+
+    /*Same as encode, but every output line is also passed to lineListener*/
+    public Mono<ProcessResult> encode(String operation, List<String> command, Consumer<String> lineListener) {
+        AtomicBoolean dequeued = new AtomicBoolean();
+        Runnable leaveQueue = () -> {
+            if (dequeued.compareAndSet(false, true)) {
+                queuedEncodes.decrementAndGet();
+            }
+        };
+
+        return execute(operation, command, encoderScheduler, lineListener, leaveQueue)
+                .doOnSubscribe(subscription -> queuedEncodes.incrementAndGet())
+                .doOnCancel(leaveQueue);
+    }
+
+    /*Encodes waiting for a free encoder slot*/
+    public int queuedEncodes() {
+        return queuedEncodes.get();
+    }
+
+    public Duration timeoutFor(String operation) {
+        Duration fallback = environment.getProperty("ffmpeg.timeout.default", Duration.class, DEFAULT_TIMEOUT);
+        return environment.getProperty("ffmpeg.timeout." + operation, Duration.class, fallback);
+    }
+
+    private Mono<ProcessResult> execute(String operation, List<String> command, Scheduler scheduler,
+                                        Consumer<String> lineListener, Runnable onStart) {
+        Duration timeout = timeoutFor(operation);
+
+        return Mono.deferContextual(context -> {
+            AtomicReference<Process> running = new AtomicReference<>();
+            AtomicBoolean cancelled = new AtomicBoolean();
+            Consumer<CompletableFuture<Void>> exits = context.getOrDefault(PROCESS_EXITS, exit -> { });
+            long subscribedAt = System.nanoTime();
+            Observation observation = Observation.createNotStarted(PROCESS_OBSERVATION, observationRegistry)
+                    .contextualName(operation + " process")
+                    .lowCardinalityKeyValue("process.operation", operation)
+                    .highCardinalityKeyValue("process.command", summarize(command))
+                    .parentObservation(context.getOrDefault(ObservationThreadLocalAccessor.KEY, null))
+                    .start();
+
+            return Mono.fromCallable(() -> {
+                        observation.highCardinalityKeyValue("process.queued_ms",
+                                String.valueOf(Duration.ofNanos(System.nanoTime() - subscribedAt).toMillis()));
+                        // a cancelled run keeps this thread until the killed process has exited, so that is when it completes
+                        CompletableFuture<Void> exited = new CompletableFuture<>();
+                        exits.accept(exited);
+                        onStart.run();
+                        try {
+                            ProcessResult result = waitFor(operation, command, timeout, running, cancelled, lineListener);
+                            observation.highCardinalityKeyValue("process.exit_code", String.valueOf(result.exitCode()));
+                            return result;
+                        } catch (ProcessFailedException e) {
+                            if (e.getExitCode() != null) {
+                                observation.highCardinalityKeyValue("process.exit_code", String.valueOf(e.getExitCode()));
+                            }
+                            throw e;
+                        } finally {
+                            exited.complete(null);
+                        }
+                    })
+                    .doOnCancel(() -> {
+                        cancelled.set(true);
+                        Process process = running.get();
+                        if (process != null) {
+                            log.warn("{} process cancelled, pid: {}", operation, process.pid());
+                            destroyTree(process);
+                        }
+                    })
+                    .doOnError(observation::error)
+                    .doFinally(signal -> observation.stop())
+                    .subscribeOn(scheduler);
+        });
+    }
+
+    /*Binary name and arguments with paths shortened to file names, capped so spans stay small*/
+    private String summarize(List<String> command) {
+        String summary = command.stream()
+                .map(argument -> argument.substring(argument.lastIndexOf('/') + 1))
+                .collect(Collectors.joining(" "));
+        return summary.length() > MAX_COMMAND_SUMMARY ? summary.substring(0, MAX_COMMAND_SUMMARY) + "..." : summary;
+    }
+
+    private ProcessResult waitFor(String operation, List<String> command, Duration timeout,
+                                  AtomicReference<Process> running, AtomicBoolean cancelled,
+                                  Consumer<String> lineListener) {
+        long startedAt = System.nanoTime();
+        Process process = start(command);
+        running.set(process);
+        if (cancelled.get()) {
+            destroyTree(process);
+        }
+        OutputRingBuffer output = new OutputRingBuffer(variableConfig.PROCESS_OUTPUT_LINES);
+        Thread drainer = startDrainer(operation, process, output, lineListener);
+        log.debug("Started {} process, pid: {}", operation, process.pid());
+
+        try {
+            if (!process.waitFor(timeout.toMillis(), TimeUnit.MILLISECONDS)) {
+                destroyTree(process);
+                throw new ProcessFailedException(operation + " process timed out after " + timeout, output.snapshot());
+            }
+        } catch (InterruptedException e) {
+            destroyTree(process);
+            Thread.currentThread().interrupt();
+            throw new ProcessFailedException(operation + " process was interrupted", output.snapshot());
+        }
+
+        awaitDrained(drainer);
+        ProcessResult result = new ProcessResult(operation, process.exitValue(),
+                Duration.ofNanos(System.nanoTime() - startedAt), output.snapshot());
+        if (cancelled.get()) {
+            // the subscriber is gone, nobody is interested in the exit code of a killed process
+            return result;
+        }
+        if (result.exitCode() != 0) {
+            log.error("{} process exited with code {}: {}", operation, result.exitCode(),
+                    String.join("\n", result.outputTail()));
+            throw new ProcessFailedException(operation + " process exited with error code: " + result.exitCode(),
+                    result.exitCode(), result.outputTail());
+        }
+        log.debug("{} process finished in {} ms", operation, result.elapsed().toMillis());
+        return result;
+    }
+
+    private Process start(List<String> command) {
+        try {
+            return new ProcessBuilder(command)
+                    .redirectErrorStream(true)
+                    .start();
+        } catch (IOException e) {
+            throw new RuntimeException("Error running process: " + command.get(0), e);
+        }
+    }
+
+    private Thread startDrainer(String operation, Process process, OutputRingBuffer output,
+                                Consumer<String> lineListener) {
+        return Thread.ofVirtual()
+                .name(operation + "-output-" + process.pid())
+                .start(() -> {
+                    try (BufferedReader reader = new BufferedReader(
+                            new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+                        String line;
+                        while ((line = reader.readLine()) != null) {
+                            output.add(line);
+                            lineListener.accept(line);
+                        }
+                    } catch (IOException e) {
+                        log.debug("Output stream of {} closed: {}", operation, e.getMessage());
+                    }
+                });
+    }
+
+    private void awaitDrained(Thread drainer) {
+        try {
+            drainer.join(Duration.ofSeconds(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void destroyTree(Process process) {
+        process.descendants().forEach(ProcessHandle::destroyForcibly);
+        process.destroyForcibly();
+    }
+}
@@ -0,0 +1,74 @@
+package app.ImageTask.util;
+
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.util.exception.InvalidMediaException;
+import app.ImageTask.util.exception.PayloadTooLargeException;
+import lombok.RequiredArgsConstructor;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Checks an upload while it streams: the first bytes must be an ISO-BMFF {@code ftyp} box and the
+ * total size must stay under {@code upload.max-bytes}. Either violation fails the stream at once,
+ * so a bad upload is rejected after the first buffer instead of after being written in full.
+ */
+@Component
+@RequiredArgsConstructor
+public class UploadValidator {
+
+    private static final int HEADER_SIZE = 12;
+    private static final int MIN_FTYP_BOX_SIZE = 16;
+
+    private final VariableConfig variableConfig;
+
+    public Flux<DataBuffer> validateMp4(Flux<DataBuffer> content) {
+        return Flux.defer(() -> {
+            UploadState state = new UploadState();
+            return content
+                    .map(buffer -> inspect(state, buffer))
+                    .concatWith(Mono.defer(() -> state.verified
+                            ? Mono.empty()
+                            : Mono.error(new InvalidMediaException("Uploaded file is too short to be an MP4 file"))));
+        });
+    }
+
+    private DataBuffer inspect(UploadState state, DataBuffer buffer) {
+        state.totalBytes += buffer.readableByteCount();
+        if (state.totalBytes > variableConfig.UPLOAD_MAX_BYTES) {
+            DataBufferUtils.release(buffer);
+            throw new PayloadTooLargeException("Uploaded file exceeds " + variableConfig.UPLOAD_MAX_BYTES + " bytes");
+        }
+        if (!state.verified) {
+            int start = buffer.readPosition();
+            int count = Math.min(HEADER_SIZE - state.filled, buffer.readableByteCount());
+            for (int i = 0; i < count; i++) {
+                state.header[state.filled++] = buffer.getByte(start + i);
+            }
+            if (state.filled == HEADER_SIZE) {
+                if (!isFtypBox(state.header)) {
+                    DataBufferUtils.release(buffer);
+                    throw new InvalidMediaException("Uploaded file is not an MP4 file!!");
+                }
+                state.verified = true;
+            }
+        }
+        return buffer;
+    }
+
+    /*ISO-BMFF files start with a box: 4-byte big-endian size, then the "ftyp" type and the major brand*/
+    private boolean isFtypBox(byte[] header) {
+        long boxSize = ((header[0] & 0xFFL) << 24) | ((header[1] & 0xFFL) << 16) | ((header[2] & 0xFFL) << 8) | (header[3] & 0xFFL);
+        return boxSize >= MIN_FTYP_BOX_SIZE
+                && header[4] == 'f' && header[5] == 't' && header[6] == 'y' && header[7] == 'p';
+    }
+
+    private static class UploadState {
+        private final byte[] header = new byte[HEADER_SIZE];
+        private int filled;
+        private long totalBytes;
+        private boolean verified;
+    }
+}
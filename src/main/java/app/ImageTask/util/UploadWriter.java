@@ -0,0 +1,179 @@
+package app.ImageTask.util;
+
+import app.ImageTask.config.SchedulerConfig;
+import app.ImageTask.config.VariableConfig;
+import lombok.RequiredArgsConstructor;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.AsynchronousFileChannel;
+import java.nio.channels.CompletionHandler;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Writes an upload to disk in large aligned writes. Network buffers are copied into direct buffers of
+ * {@code upload.write-buffer-size} (rounded up to 4 KiB), and each full one is written with an
+ * {@link AsynchronousFileChannel} at the next multiple of that size, so the disk sees a few big sequential
+ * writes instead of one small write per network buffer. An upload holds at most three direct buffers: one
+ * being filled, one waiting and one being written. Ahead of them up to {@link #INPUT_PREFETCH} network buffers
+ * are requested, so an upload holds at most 3 x {@code upload.write-buffer-size} plus that many network reads.
+ * Buffers live off-heap and are pooled across uploads up to {@code upload.pooled-write-buffers}.
+ */
+@Component
+@RequiredArgsConstructor
+public class UploadWriter {
+
+    private static final int ALIGNMENT = 4096;
+    /*Direct buffers one upload holds at most: being filled, waiting and being written*/
+    public static final int WRITE_BUFFERS = 3;
+    public static final int INPUT_PREFETCH = 32;
+
+    private final VariableConfig variableConfig;
+    @Qualifier(SchedulerConfig.IO_SCHEDULER)
+    private final Scheduler ioScheduler;
+
+    private final Queue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /*Writes the content to path, replacing it, and returns the number of bytes written*/
+    public Mono<Long> write(Flux<DataBuffer> content, Path path) {
+        return Mono.usingWhen(
+                Mono.fromCallable(() -> AsynchronousFileChannel.open(path,
+                                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+                        .subscribeOn(ioScheduler),
+                channel -> Mono.defer(() -> {
+                    Coalescer coalescer = new Coalescer();
+                    return content
+                            .doOnDiscard(DataBuffer.class, DataBufferUtils::release)
+                            .concatMapIterable(coalescer::add, INPUT_PREFETCH)
+                            .concatWith(Mono.fromSupplier(coalescer::flush))
+                            .doOnDiscard(Block.class, block -> recycle(block.buffer()))
+                            // a cancelled write may still be reading its buffer, so only completed ones are reused
+                            .concatMap(block -> writeFully(channel, block.buffer(), block.position())
+                                    .doOnSuccess(done -> recycle(block.buffer())), 1)
+                            .doFinally(signal -> coalescer.release())
+                            .then(Mono.fromSupplier(coalescer::written));
+                }),
+                channel -> Mono.fromCallable(() -> {
+                    channel.close();
+                    return channel;
+                }).subscribeOn(ioScheduler));
+    }
+
+    private Mono<Void> writeFully(AsynchronousFileChannel channel, ByteBuffer buffer, long position) {
+        return Mono.create(sink -> channel.write(buffer, position, position, new CompletionHandler<Integer, Long>() {
+            @Override
+            public void completed(Integer written, Long offset) {
+                if (buffer.hasRemaining()) {
+                    channel.write(buffer, offset + written, offset + written, this);
+                } else {
+                    sink.success();
+                }
+            }
+
+            @Override
+            public void failed(Throwable e, Long offset) {
+                sink.error(e);
+            }
+        }));
+    }
+
+    private ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocateDirect(bufferSize());
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+
+    private void recycle(ByteBuffer buffer) {
+        if (buffer.capacity() != bufferSize()) {
+            return;
+        }
+        if (pooled.incrementAndGet() > variableConfig.UPLOAD_POOLED_WRITE_BUFFERS) {
+            pooled.decrementAndGet();
+            return;
+        }
+        pool.offer(buffer.clear());
+    }
+
+    /*Capacity of each direct write buffer*/
+    public int bufferSize() {
+        int size = Math.max(ALIGNMENT, (int) variableConfig.UPLOAD_WRITE_BUFFER_SIZE.toBytes());
+        return (size + ALIGNMENT - 1) / ALIGNMENT * ALIGNMENT;
+    }
+
+    /*A full buffer and the file offset it goes to*/
+    private record Block(ByteBuffer buffer, long position) {
+    }
+
+    /*Copies incoming buffers into direct buffers; touched only from the serialized input signals*/
+    private class Coalescer {
+
+        private ByteBuffer current;
+        private long position;
+
+        private List<Block> add(DataBuffer dataBuffer) {
+            List<Block> full = new ArrayList<>(1);
+            try (DataBuffer.ByteBufferIterator iterator = dataBuffer.readableByteBuffers()) {
+                while (iterator.hasNext()) {
+                    ByteBuffer source = iterator.next();
+                    while (source.hasRemaining()) {
+                        if (current == null) {
+                            current = acquire();
+                        }
+                        int count = Math.min(source.remaining(), current.remaining());
+                        current.put(source.slice(source.position(), count));
+                        source.position(source.position() + count);
+                        if (!current.hasRemaining()) {
+                            full.add(take());
+                        }
+                    }
+                }
+            } finally {
+                DataBufferUtils.release(dataBuffer);
+            }
+            return full;
+        }
+
+        /*The last, partly filled buffer, or null when the input ended on a buffer boundary*/
+        private Block flush() {
+            if (current == null || current.position() == 0) {
+                return null;
+            }
+            return take();
+        }
+
+        private Block take() {
+            ByteBuffer buffer = current.flip();
+            Block block = new Block(buffer, position);
+            position += buffer.remaining();
+            current = null;
+            return block;
+        }
+
+        private long written() {
+            return position;
+        }
+
+        private void release() {
+            if (current != null) {
+                recycle(current);
+                current = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package app.ImageTask.util.exception;
+
+public class IdempotencyConflictException extends RuntimeException {
+
+    /*true while the first request with the key still runs, false when the key was used for a different request*/
+    private final boolean inProgress;
+
+    public IdempotencyConflictException(String message, boolean inProgress) {
+        super(message);
+        this.inProgress = inProgress;
+    }
+
+    public boolean isInProgress() {
+        return inProgress;
+    }
+}
@@ -0,0 +1,7 @@
+package app.ImageTask.util.exception;
+
+public class InvalidMediaException extends RuntimeException {
+    public InvalidMediaException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,7 @@
+package app.ImageTask.util.exception;
+
+public class JobCancelledException extends RuntimeException {
+    public JobCancelledException(String message) {
+        super(message);
+    }
+}
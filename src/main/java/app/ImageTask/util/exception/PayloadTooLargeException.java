@@ -0,0 +1,7 @@
+package app.ImageTask.util.exception;
+
+public class PayloadTooLargeException extends RuntimeException {
+    public PayloadTooLargeException(String message) {
+        super(message);
+    }
+}
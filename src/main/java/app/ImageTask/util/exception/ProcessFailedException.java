@@ -0,0 +1,28 @@
+package app.ImageTask.util.exception;
+
+import java.util.List;
+
+public class ProcessFailedException extends RuntimeException {
+
+    private final Integer exitCode;
+    private final List<String> outputTail;
+
+    public ProcessFailedException(String message, List<String> outputTail) {
+        this(message, null, outputTail);
+    }
+
+    public ProcessFailedException(String message, Integer exitCode, List<String> outputTail) {
+        super(message);
+        this.exitCode = exitCode;
+        this.outputTail = outputTail;
+    }
+
+    /*null when the process was killed on timeout or interrupt*/
+    public Integer getExitCode() {
+        return exitCode;
+    }
+
+    public List<String> getOutputTail() {
+        return outputTail;
+    }
+}
@@ -1,24 +1,39 @@
 package app.ImageTask;
 
+import app.ImageTask.domain.dto.CutTimeDto;
+import app.ImageTask.domain.dto.JobDto;
+import app.ImageTask.domain.dto.PreviewDto;
 import app.ImageTask.domain.dto.SizeDto;
+import app.ImageTask.domain.dto.VideoDto;
+import app.ImageTask.domain.dto.VideoStatusDto;
+import app.ImageTask.service.JobService;
 import app.ImageTask.service.VideoService;
 import app.ImageTask.util.MockFilePart;
+import app.ImageTask.util.exception.InvalidMediaException;
 import org.junit.jupiter.api.*;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.testcontainers.junit.jupiter.Testcontainers;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.Map;
 import java.util.Objects;
+import java.util.UUID;
 
 import static org.assertj.core.api.AssertionsForClassTypes.assertThat;
 
@@ -34,6 +49,9 @@ public class ImageTest extends AbstractMongoTest {
     @Autowired
     private WebTestClient webTestClient;
 
+    @Autowired
+    private JobService jobService;
+
     private static String uuid;
 
     @Test
@@ -106,7 +124,7 @@ public class ImageTest extends AbstractMongoTest {
     @Order(4)
     void correctDownloadVideo() {
         String id = uuid;
-        Mono<ResponseEntity<?>> responseMono = videoService.downloadVideo(id);
+        Mono<ResponseEntity<?>> responseMono = videoService.downloadVideo(id, null);
         StepVerifier.create(responseMono)
                 .assertNext(response -> {
                     assertThat(response.getStatusCode()).isEqualTo(HttpStatus.OK);
@@ -140,5 +158,224 @@ public class ImageTest extends AbstractMongoTest {
                 .verifyComplete();
     }
 
-}
+    @Test
+    @Order(7)
+    void rejectUploadWithoutFtypBox() {
+        byte[] fileContent = "this is definitely not an mp4 file".getBytes();
+        MockFilePart filePart = new MockFilePart("fake.mp4", MediaType.parseMediaType("video/mp4"), fileContent);
+
+        StepVerifier.create(videoService.saveVideo(filePart))
+                .expectError(InvalidMediaException.class)
+                .verify();
+    }
+
+    @Test
+    @Order(8)
+    void rejectStreamedUploadWithoutFtypBox() {
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.part("file", new ByteArrayResource("this is definitely not an mp4 file".getBytes()))
+                .filename("fake.mp4")
+                .contentType(MediaType.parseMediaType("video/mp4"));
+
+        webTestClient.post().uri("/file")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(body.build()))
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    @Order(9)
+    void cancelJobThroughApiResetsVideo() throws Exception {
+        String id = uploadTestVideo();
+        videoService.toHLS(id).subscribe();
+
+        webTestClient.delete().uri("/jobs/{id}", awaitRunningJob(id))
+                .exchange()
+                .expectStatus().isOk();
+
+        assertJobReset(id);
+    }
+
+    @Test
+    @Order(10)
+    void disconnectedJobResetsVideo() throws Exception {
+        String id = uploadTestVideo();
+        Disposable request = videoService.toHLS(id).subscribe();
+        awaitRunningJob(id);
+
+        request.dispose();
 
+        assertJobReset(id);
+    }
+
+    @Test
+    @Order(11)
+    void conditionalRequestsAnswerNotModified() throws Exception {
+        String id = uploadTestVideo();
+
+        assertNotModified("/file/download/{id}", id);
+        assertNotModified("/file/{id}", id);
+        assertNotModified("/file/hls/{id}/master.m3u8", id);
+    }
+
+    @Test
+    @Order(12)
+    void rejectPreviewStartingPastTheEnd() throws Exception {
+        String id = uploadTestVideo();
+
+        webTestClient.patch().uri("/file/toGif/{id}", id)
+                .contentType(MediaType.APPLICATION_JSON)
+                .bodyValue(PreviewDto.builder().start("23:59:59").build())
+                .exchange()
+                .expectStatus().isBadRequest();
+
+        StepVerifier.create(videoService.getVideo(id).mapNotNull(ResponseEntity::getBody))
+                .assertNext(video -> {
+                    assertThat(video.getJobId()).isNull();
+                    assertThat(video.getRenditions().isEmpty()).isTrue();
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    @Order(13)
+    void statusEventsFollowJob() throws Exception {
+        String id = uploadTestVideo();
+
+        Flux<VideoStatusDto> statuses = webTestClient.get()
+                .uri("/file/{id}/status", id)
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(VideoStatusDto.class)
+                .getResponseBody()
+                .skipUntil(status -> Boolean.TRUE.equals(status.getProcessing()))
+                .takeUntil(status -> Boolean.FALSE.equals(status.getProcessing()));
+
+        StepVerifier.create(statuses)
+                .then(() -> videoService.cutByTime(id, CutTimeDto.builder().start("00:00:00").end("00:00:01").build()).subscribe())
+                .assertNext(status -> assertThat(status.getJobId()).isNotNull())
+                .assertNext(status -> {
+                    assertThat(status.getProcessing()).isFalse();
+                    assertThat(status.getProcessingSuccess()).isTrue();
+                })
+                .expectComplete()
+                .verify(Duration.ofMinutes(1));
+    }
+
+    @Test
+    @Order(14)
+    void retryWithIdempotencyKeyReplaysOutcome() throws Exception {
+        String id = uploadTestVideo();
+        String idempotencyKey = UUID.randomUUID().toString();
+        int renditionsBefore = renditionCount(id);
+        WebTestClient client = webTestClient.mutate().responseTimeout(Duration.ofMinutes(1)).build();
+
+        client.patch().uri("/file/toGif/{id}", id)
+                .header("Idempotency-Key", idempotencyKey)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody().jsonPath("$.success").isEqualTo(true);
+
+        client.patch().uri("/file/toGif/{id}", id)
+                .header("Idempotency-Key", idempotencyKey)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().valueEquals("Idempotent-Replayed", "true")
+                .expectBody().jsonPath("$.success").isEqualTo(true);
+
+        assertThat(renditionCount(id)).isEqualTo(renditionsBefore + 1);
+    }
+
+    @Test
+    @Order(15)
+    void lazyHlsRejectsUnknownBitrate() throws Exception {
+        String id = uploadTestVideo();
+
+        webTestClient.get().uri("/file/hls/{id}/{bitrate}/index.m3u8", id, "1234k")
+                .exchange()
+                .expectStatus().isNotFound();
+        webTestClient.get().uri("/file/hls/{id}/{bitrate}/segment_{index}.ts", id, "1234k", 0)
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
+    @Test
+    @Order(16)
+    void concurrentRenditionsAreAllRecorded() throws Exception {
+        String id = uploadTestVideo();
+        int renditionsBefore = renditionCount(id);
+
+        StepVerifier.create(Mono.zip(
+                        videoService.cutByTime(id, CutTimeDto.builder().start("00:00:00").end("00:00:01").build()),
+                        videoService.cutByTime(id, CutTimeDto.builder().start("00:00:01").end("00:00:02").build())))
+                .assertNext(results -> {
+                    assertThat(results.getT1().getStatusCode()).isEqualTo(HttpStatus.OK);
+                    assertThat(results.getT2().getStatusCode()).isEqualTo(HttpStatus.OK);
+                })
+                .verifyComplete();
+
+        StepVerifier.create(videoService.getVideo(id).mapNotNull(ResponseEntity::getBody))
+                .assertNext(video -> {
+                    assertThat(video.getProcessing()).isFalse();
+                    assertThat(video.getProcessingSuccess()).isTrue();
+                    assertThat(video.getJobId()).isNull();
+                    assertThat(video.getRenditions().size()).isEqualTo(renditionsBefore + 2);
+                })
+                .verifyComplete();
+    }
+
+    /*A repeat request carrying the returned ETag must be answered with 304 and no body*/
+    private void assertNotModified(String uri, String id) {
+        String eTag = webTestClient.get().uri(uri, id)
+                .exchange()
+                .expectStatus().isOk()
+                .expectHeader().exists(HttpHeaders.ETAG)
+                .expectBody().returnResult()
+                .getResponseHeaders().getETag();
+
+        webTestClient.get().uri(uri, id)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange()
+                .expectStatus().isNotModified()
+                .expectBody().isEmpty();
+    }
+
+    private int renditionCount(String id) {
+        return Objects.requireNonNull(videoService.getVideo(id).block().getBody()).getRenditions().size();
+    }
+
+    private String uploadTestVideo() throws Exception {
+        Path filePath = Paths.get("src/test/java/app/ImageTask/resources/test-video.mp4");
+        MockFilePart filePart = new MockFilePart(filePath.getFileName().toString(), MediaType.parseMediaType("video/mp4"),
+                Files.readAllBytes(filePath));
+        return Objects.requireNonNull(videoService.saveVideo(filePart).block().getBody()).get("id");
+    }
+
+    private String awaitRunningJob(String videoId) {
+        return Mono.fromSupplier(() -> jobService.runningJobs().stream()
+                        .filter(job -> job.getVideoId().equals(videoId))
+                        .map(JobDto::getId)
+                        .findFirst())
+                .flatMap(Mono::justOrEmpty)
+                .repeatWhenEmpty(100, attempts -> attempts.delayElements(Duration.ofMillis(50)))
+                .block(Duration.ofSeconds(30));
+    }
+
+    /*The document must not be left at processing=true with the cancelled job's id*/
+    private void assertJobReset(String videoId) {
+        Mono<VideoDto> reset = Mono.defer(() -> videoService.getVideo(videoId))
+                .mapNotNull(ResponseEntity::getBody)
+                .filter(video -> !Boolean.TRUE.equals(video.getProcessing()))
+                .repeatWhenEmpty(100, attempts -> attempts.delayElements(Duration.ofMillis(100)));
+
+        StepVerifier.create(reset)
+                .assertNext(video -> {
+                    assertThat(video.getProcessing()).isFalse();
+                    assertThat(video.getJobId()).isNull();
+                    assertThat(video.getProcessingSuccess()).isNull();
+                })
+                .verifyComplete();
+    }
+}
@@ -0,0 +1,74 @@
+package app.ImageTask.benchmark;
+
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.util.FileObservations;
+import app.ImageTask.util.FmmpegUtil;
+import app.ImageTask.util.KeyframeIndexStore;
+import app.ImageTask.util.ProcessRunner;
+import io.micrometer.observation.ObservationRegistry;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.env.StandardEnvironment;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Wall-clock time of a split-and-stitch encode for growing chunk counts (one encoder slot per chunk).
+ * Needs ffmpeg; point {@code -Dbenchmark.video} at a long source for meaningful numbers.
+ */
+@Tag("benchmark")
+public class ChunkedEncodingBenchmark {
+
+    private static final String VIDEO = System.getProperty("benchmark.video", "src/test/java/app/ImageTask/resources/test-video.mp4");
+    private static final String CODEC = System.getProperty("benchmark.codec", "libx264");
+
+    @Test
+    void speedupPerCoreCount() throws Exception {
+        Path workDir = Files.createTempDirectory("chunked-benchmark");
+        Path source = workDir.resolve("source.mp4");
+        Files.copy(Paths.get(VIDEO), source, StandardCopyOption.REPLACE_EXISTING);
+
+        VariableConfig variableConfig = new VariableConfig();
+        variableConfig.FFMPEG_PATH = System.getProperty("benchmark.ffmpeg", "ffmpeg");
+        variableConfig.FFPROBE_PATH = System.getProperty("benchmark.ffprobe", "ffprobe");
+        variableConfig.PROCESS_OUTPUT_LINES = 50;
+
+        int cores = Runtime.getRuntime().availableProcessors();
+        long baselineMillis = 0;
+        for (int chunks = 1; chunks <= cores; chunks *= 2) {
+            Scheduler ioScheduler = Schedulers.boundedElastic();
+            Scheduler encoderScheduler = Schedulers.newBoundedElastic(chunks, 100, "bench-encoder");
+            try {
+                ProcessRunner processRunner = new ProcessRunner(variableConfig, new StandardEnvironment(),
+                        ObservationRegistry.NOOP, ioScheduler, encoderScheduler);
+                FmmpegUtil ffmpegUtil = new FmmpegUtil(variableConfig, processRunner,
+                        new FileObservations(ObservationRegistry.NOOP),
+                        new KeyframeIndexStore(variableConfig, processRunner, ioScheduler), ioScheduler);
+                Path output = workDir.resolve("output_" + chunks + ".mp4");
+
+                long startedAt = System.nanoTime();
+                ffmpegUtil.encodeChunked("transcode", source.toString(), output, List.of("-c:v", CODEC), chunks)
+                        .block(Duration.ofHours(1));
+                long elapsedMillis = Duration.ofNanos(System.nanoTime() - startedAt).toMillis();
+                if (chunks == 1) {
+                    baselineMillis = elapsedMillis;
+                }
+
+                assertThat(output).exists();
+                System.out.printf("chunks=%d elapsed=%dms speedup=%.2fx%n", chunks, elapsedMillis,
+                        (double) baselineMillis / Math.max(1, elapsedMillis));
+            } finally {
+                encoderScheduler.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package app.ImageTask.benchmark;
+
+import app.ImageTask.AbstractMongoTest;
+import app.ImageTask.service.VideoService;
+import app.ImageTask.util.MockFilePart;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.netty.http.client.HttpClient;
+import reactor.netty.resources.ConnectionProvider;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Throughput of concurrent download and status requests ({@code GET /file/download/{id}} and
+ * {@code GET /file/{id}}) against the running application, whose blocking file work runs on the I/O
+ * scheduler. Run once per mode to compare them: {@code ./gradlew benchmark -Dbenchmark.io-mode=bounded-elastic}
+ * and {@code -Dbenchmark.io-mode=virtual}.
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class SchedulerBenchmark extends AbstractMongoTest {
+
+    private static final String IO_MODE = System.getProperty("benchmark.io-mode", "bounded-elastic");
+    private static final int REQUESTS = Integer.getInteger("benchmark.requests", 5000);
+    private static final int CONCURRENCY = Integer.getInteger("benchmark.concurrency", 256);
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private VideoService videoService;
+
+    @DynamicPropertySource
+    static void ioMode(DynamicPropertyRegistry registry) {
+        registry.add("scheduler.io.mode", () -> IO_MODE);
+    }
+
+    @Test
+    void downloadAndStatusRequests() throws Exception {
+        String id = uploadTestVideo();
+        ConnectionProvider connections = ConnectionProvider.builder("scheduler-benchmark")
+                .maxConnections(CONCURRENCY)
+                .build();
+        WebClient client = WebClient.builder()
+                .baseUrl("http://localhost:" + port)
+                .clientConnector(new ReactorClientHttpConnector(HttpClient.create(connections)))
+                .build();
+        try {
+            Result downloads = run("download", client.get().uri("/file/download/{id}", id));
+            Result statuses = run("status", client.get().uri("/file/{id}", id));
+
+            System.out.println(downloads);
+            System.out.println(statuses);
+            assertThat(downloads.completed()).isEqualTo(REQUESTS);
+            assertThat(statuses.completed()).isEqualTo(REQUESTS);
+        } finally {
+            connections.dispose();
+            videoService.deleteVideo(id).block(Duration.ofMinutes(1));
+        }
+    }
+
+    private Result run(String name, WebClient.RequestHeadersSpec<?> request) {
+        AtomicInteger completed = new AtomicInteger();
+        AtomicInteger failed = new AtomicInteger();
+        long startedAt = System.nanoTime();
+        Flux.range(0, REQUESTS)
+                .flatMap(i -> request.retrieve().toBodilessEntity()
+                                .doOnNext(response -> completed.incrementAndGet())
+                                .onErrorResume(e -> {
+                                    failed.incrementAndGet();
+                                    return Mono.empty();
+                                }),
+                        CONCURRENCY)
+                .blockLast(Duration.ofMinutes(5));
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - startedAt);
+        return new Result(name, completed.get(), failed.get(), elapsed);
+    }
+
+    private String uploadTestVideo() throws Exception {
+        Path filePath = Paths.get("src/test/java/app/ImageTask/resources/test-video.mp4");
+        MockFilePart filePart = new MockFilePart(filePath.getFileName().toString(), MediaType.parseMediaType("video/mp4"),
+                Files.readAllBytes(filePath));
+        return Objects.requireNonNull(videoService.saveVideo(filePart).block().getBody()).get("id");
+    }
+
+    private record Result(String requests, int completed, int failed, Duration elapsed) {
+        @Override
+        public String toString() {
+            double perSecond = completed * 1000.0 / Math.max(1, elapsed.toMillis());
+            return String.format("io-mode=%s %-8s completed=%d failed=%d elapsed=%dms throughput=%.0f req/s",
+                    IO_MODE, requests, completed, failed, elapsed.toMillis(), perSecond);
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package app.ImageTask.benchmark;
+
+import app.ImageTask.AbstractMongoTest;
+import app.ImageTask.util.UploadWriter;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.web.server.LocalServerPort;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.MultipartBodyBuilder;
+import org.springframework.web.reactive.function.BodyInserters;
+import org.springframework.web.reactive.function.client.WebClient;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * Sustained throughput and peak heap/direct memory of concurrent multipart uploads through {@code POST /file},
+ * so multipart parsing, validation and the upload writer are all measured. Client and server share the JVM,
+ * so the memory peaks include the client; serverBufferBound is the most the upload writers can hold at once. Defaults to 50 uploads of 1 GB each, which needs 50 GB free disk;
+ * scale down with {@code -Dbenchmark.uploads} and {@code -Dbenchmark.upload-mb}.
+ */
+@Tag("benchmark")
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+public class UploadBenchmark extends AbstractMongoTest {
+
+    private static final int UPLOADS = Integer.getInteger("benchmark.uploads", 50);
+    private static final long UPLOAD_BYTES = Long.getLong("benchmark.upload-mb", 1024) * 1024 * 1024;
+    private static final int CLIENT_BUFFER_BYTES = Integer.getInteger("benchmark.client-buffer-kb", 64) * 1024;
+    /*An ftyp box, so the upload passes the MP4 signature check*/
+    /*Largest read Netty's adaptive receive allocator hands out*/
+    private static final int MAX_NETWORK_READ_BYTES = 64 * 1024;
+    private static final byte[] FTYP_BOX = {0, 0, 0, 24, 'f', 't', 'y', 'p', 'i', 's', 'o', 'm', 0, 0, 2, 0,
+            'i', 's', 'o', 'm', 'm', 'p', '4', '1'};
+
+    @LocalServerPort
+    private int port;
+
+    @Autowired
+    private UploadWriter uploadWriter;
+
+    @Test
+    void concurrentMultipartUploads() {
+        WebClient client = WebClient.create("http://localhost:" + port);
+        System.gc();
+        MemoryPeaks peaks = new MemoryPeaks();
+        Disposable sampler = Flux.interval(Duration.ofMillis(50)).subscribe(tick -> peaks.sample());
+        long startedAt = System.nanoTime();
+        List<String> ids;
+        try {
+            ids = Flux.range(0, UPLOADS)
+                    .flatMap(i -> upload(client), UPLOADS)
+                    .collectList()
+                    .block(Duration.ofHours(2));
+        } finally {
+            sampler.dispose();
+        }
+        Duration elapsed = Duration.ofNanos(System.nanoTime() - startedAt);
+
+        long bufferBound = UPLOADS * ((long) UploadWriter.WRITE_BUFFERS * uploadWriter.bufferSize()
+                + (long) UploadWriter.INPUT_PREFETCH * MAX_NETWORK_READ_BYTES);
+        System.out.println(new Result(ids == null ? 0 : ids.size(), elapsed, peaks.heap.get(), peaks.direct.get(), bufferBound));
+        assertThat(ids).hasSize(UPLOADS);
+
+        Flux.fromIterable(ids)
+                .flatMap(id -> client.delete().uri("/file/{id}", id).retrieve().toBodilessEntity())
+                .blockLast(Duration.ofMinutes(5));
+    }
+
+    private Mono<String> upload(WebClient client) {
+        MultipartBodyBuilder body = new MultipartBodyBuilder();
+        body.asyncPart("file", content(), DataBuffer.class)
+                .filename("upload.mp4")
+                .contentType(MediaType.parseMediaType("video/mp4"));
+        return client.post().uri("/file")
+                .contentType(MediaType.MULTIPART_FORM_DATA)
+                .body(BodyInserters.fromMultipartData(body.build()))
+                .retrieve()
+                .bodyToMono(new ParameterizedTypeReference<Map<String, String>>() { })
+                .map(response -> response.get("id"));
+    }
+
+    /*The ftyp box, then views of one random block up to the upload size*/
+    private Flux<DataBuffer> content() {
+        byte[] block = new byte[CLIENT_BUFFER_BYTES];
+        ThreadLocalRandom.current().nextBytes(block);
+        ByteBuffer source = ByteBuffer.wrap(block);
+        long remaining = UPLOAD_BYTES - FTYP_BOX.length;
+        return Flux.concat(
+                Mono.fromSupplier(() -> DefaultDataBufferFactory.sharedInstance.wrap(FTYP_BOX.clone())),
+                Flux.range(0, (int) (remaining / CLIENT_BUFFER_BYTES))
+                        .map(i -> DefaultDataBufferFactory.sharedInstance.wrap(source.duplicate())));
+    }
+
+    private static class MemoryPeaks {
+        private final AtomicLong heap = new AtomicLong();
+        private final AtomicLong direct = new AtomicLong();
+
+        private void sample() {
+            heap.accumulateAndGet(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(), Math::max);
+            long directUsed = ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+                    .filter(pool -> "direct".equals(pool.getName()))
+                    .mapToLong(BufferPoolMXBean::getMemoryUsed)
+                    .sum();
+            direct.accumulateAndGet(directUsed, Math::max);
+        }
+    }
+
+    private record Result(int uploads, Duration elapsed, long peakHeap, long peakDirect, long bufferBound) {
+        @Override
+        public String toString() {
+            double megabytes = uploads * (UPLOAD_BYTES / (1024.0 * 1024.0));
+            double perSecond = megabytes * 1000.0 / Math.max(1, elapsed.toMillis());
+            return String.format("multipart uploads=%d written=%.0fMB elapsed=%dms throughput=%.0f MB/s peakHeap=%dMB peakDirect=%dMB"
+                            + " serverBufferBound=%dMB",
+                    uploads, megabytes, elapsed.toMillis(), perSecond,
+                    peakHeap / (1024 * 1024), peakDirect / (1024 * 1024), bufferBound / (1024 * 1024));
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package app.ImageTask.service;
+
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.domain.dto.JobDto;
+import app.ImageTask.domain.entity.Video;
+import app.ImageTask.domain.enums.JobOperation;
+import app.ImageTask.repository.VideoRepository;
+import app.ImageTask.util.GlobalErrorHandler;
+import app.ImageTask.util.ProcessRunner;
+import app.ImageTask.util.exception.TooManyRequestsException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.env.MockEnvironment;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import reactor.test.StepVerifier;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class AdmissionServiceTest {
+
+    private static final String VIDEO_ID = "video";
+
+    @TempDir
+    private Path directory;
+
+    private final JobService jobService = mock(JobService.class);
+    private AdmissionService admissionService;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Path source = Files.write(directory.resolve("video.mp4"), new byte[1024]);
+        Video video = Video.builder().id(VIDEO_ID).filePath(source.toString()).durationSeconds(10.0).build();
+
+        VideoRepository videoRepository = mock(VideoRepository.class);
+        when(videoRepository.findById(VIDEO_ID)).thenReturn(Mono.just(video));
+        MediaInfoService mediaInfoService = mock(MediaInfoService.class);
+        when(mediaInfoService.ensureMediaInfo(any())).thenAnswer(invocation -> Mono.just(invocation.getArgument(0)));
+        ProcessRunner processRunner = mock(ProcessRunner.class);
+        when(jobService.runningJobs()).thenReturn(List.of());
+
+        VariableConfig variableConfig = new VariableConfig();
+        variableConfig.ENCODER_SLOTS = 2;
+        variableConfig.PREVIEW_MAX_SECONDS = 10;
+        MockEnvironment environment = new MockEnvironment()
+                .withProperty("admission.max-jobs.default", "2")
+                .withProperty("admission.min-free-bytes.default", "0");
+
+        admissionService = new AdmissionService(videoRepository, mediaInfoService, jobService, processRunner,
+                variableConfig, environment, Schedulers.immediate());
+    }
+
+    @Test
+    void burstBeyondMaxJobsIsRejectedWithRetryAfter() {
+        when(jobService.runningJobs()).thenReturn(List.of(JobDto.builder()
+                .id("running")
+                .videoId(VIDEO_ID)
+                .operation(JobOperation.CUT)
+                .estimatedSeconds(120)
+                .startedAt(Instant.now())
+                .build()));
+        Disposable held = admit(Mono.never()).subscribe();
+
+        StepVerifier.create(admit(Mono.just("admitted")))
+                .expectErrorSatisfies(error -> {
+                    assertThat(error).isInstanceOf(TooManyRequestsException.class);
+                    ResponseEntity<Map<String, String>> response = new GlobalErrorHandler()
+                            .handleTooManyRequestsException((TooManyRequestsException) error).block();
+                    assertThat(response.getStatusCode()).isEqualTo(HttpStatus.TOO_MANY_REQUESTS);
+                    assertThat(Long.parseLong(response.getHeaders().getFirst(HttpHeaders.RETRY_AFTER))).isBetween(1L, 120L);
+                })
+                .verify();
+        held.dispose();
+    }
+
+    @Test
+    void reservationIsReleasedOnCancel() {
+        Disposable first = admit(Mono.never()).subscribe();
+        Disposable second = admit(Mono.never()).subscribe();
+        StepVerifier.create(admit(Mono.just("admitted")))
+                .expectError(TooManyRequestsException.class)
+                .verify();
+
+        first.dispose();
+
+        StepVerifier.create(admit(Mono.just("admitted")))
+                .expectNext("admitted")
+                .verifyComplete();
+        second.dispose();
+    }
+
+    @Test
+    void reservationIsReleasedOnError() {
+        StepVerifier.create(admit(Mono.error(new IllegalStateException("encode failed"))))
+                .expectError(IllegalStateException.class)
+                .verify();
+        StepVerifier.create(admit(Mono.error(new IllegalStateException("encode failed"))))
+                .expectError(IllegalStateException.class)
+                .verify();
+
+        StepVerifier.create(admit(Mono.just("admitted")))
+                .expectNext("admitted")
+                .verifyComplete();
+    }
+
+    @Test
+    void reservationIsReleasedOnceTheJobIsRegistered() {
+        Mono<String> registeredJob = Mono.deferContextual(context -> {
+            context.<Runnable>get(JobService.ADMISSION_RESERVATION).run();
+            return Mono.never();
+        });
+        Disposable first = admit(registeredJob).subscribe();
+        Disposable second = admit(registeredJob).subscribe();
+
+        StepVerifier.create(admit(Mono.just("admitted")))
+                .expectNext("admitted")
+                .verifyComplete();
+        first.dispose();
+        second.dispose();
+    }
+
+    private Mono<String> admit(Mono<String> work) {
+        return admissionService.admit(VIDEO_ID, JobOperation.CUT, work);
+    }
+}
@@ -0,0 +1,96 @@
+package app.ImageTask.service;
+
+import app.ImageTask.config.VariableConfig;
+import app.ImageTask.domain.dto.EncoderSettings;
+import app.ImageTask.domain.dto.HlsRung;
+import app.ImageTask.domain.entity.Video;
+import app.ImageTask.util.FmmpegUtil;
+import app.ImageTask.util.ProcessRunner;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class EncodingPlannerTest {
+
+    private final ProcessRunner processRunner = mock(ProcessRunner.class);
+    private final VariableConfig variableConfig = new VariableConfig();
+    private EncodingPlanner encodingPlanner;
+
+    @BeforeEach
+    void setUp() {
+        variableConfig.ENCODER_SLOTS = 2;
+        variableConfig.ENCODING_PRESETS = List.of("medium", "fast", "veryfast", "ultrafast");
+        encodingPlanner = new EncodingPlanner(processRunner, variableConfig);
+    }
+
+    @Test
+    void ladderStopsAtTheSourceResolution() {
+        assertThat(encodingPlanner.ladderFor(video(1280, 720, null))).containsExactly(
+                new HlsRung("800k", 640, 360),
+                new HlsRung("1200k", 842, 480),
+                new HlsRung("2400k", 1280, 720));
+    }
+
+    @Test
+    void ladderBitratesAreCappedAtTheSourceBitrate() {
+        // 4800k at 1080p would only repeat the capped 720p bitrate, so it is dropped
+        assertThat(encodingPlanner.ladderFor(video(1920, 1080, 2_000_000L))).containsExactly(
+                new HlsRung("800k", 640, 360),
+                new HlsRung("1200k", 842, 480),
+                new HlsRung("2000k", 1280, 720));
+    }
+
+    @Test
+    void sourceBelowTheLowestRungGetsOneRungAtItsOwnSize() {
+        assertThat(encodingPlanner.ladderFor(video(321, 241, 500_000L)))
+                .containsExactly(new HlsRung("500k", 320, 240));
+    }
+
+    @Test
+    void ladderWithoutMediaInfoIsTheDefault() {
+        assertThat(encodingPlanner.ladderFor(new Video())).isEqualTo(FmmpegUtil.DEFAULT_HLS_LADDER);
+    }
+
+    @Test
+    void presetStepsDownPerFullRoundOfQueuedEncodes() {
+        assertThat(presetWithQueued(0)).isEqualTo("medium");
+        assertThat(presetWithQueued(1)).isEqualTo("medium");
+        assertThat(presetWithQueued(2)).isEqualTo("fast");
+        assertThat(presetWithQueued(5)).isEqualTo("veryfast");
+    }
+
+    @Test
+    void presetIsClampedToTheFastest() {
+        assertThat(presetWithQueued(6)).isEqualTo("ultrafast");
+        assertThat(presetWithQueued(1000)).isEqualTo("ultrafast");
+    }
+
+    @Test
+    void presetToleratesZeroSlots() {
+        variableConfig.ENCODER_SLOTS = 0;
+
+        assertThat(presetWithQueued(1)).isEqualTo("fast");
+    }
+
+    @Test
+    void codecsWithoutPresetsGetNone() {
+        EncoderSettings settings = encodingPlanner.settingsFor(video(1280, 720, 3_000_000L), "libvpx-vp9");
+
+        assertThat(settings.preset()).isNull();
+        assertThat(settings.maxBitRate()).isEqualTo(3_000_000L);
+    }
+
+    private String presetWithQueued(int queued) {
+        when(processRunner.queuedEncodes()).thenReturn(queued);
+        return encodingPlanner.settingsFor(new Video(), "libx264").preset();
+    }
+
+    private Video video(int width, int height, Long bitRate) {
+        return Video.builder().width(width).height(height).bitRate(bitRate).build();
+    }
+}
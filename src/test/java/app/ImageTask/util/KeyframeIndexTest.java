@@ -0,0 +1,81 @@
+package app.ImageTask.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class KeyframeIndexTest {
+
+    private static final double[] KEYFRAMES = {0, 2, 4.5, 7, 9.5, 12};
+
+    @TempDir
+    private Path directory;
+
+    @Test
+    void sidecarRoundTrip() throws IOException {
+        KeyframeIndex index = new KeyframeIndex(13.25, KEYFRAMES, new long[]{48, 1_000, 2_500, 4_000, 5_500, 7_000},
+                new double[]{3.1, 8.4}, true);
+        Path sidecar = directory.resolve("video.kfi");
+
+        index.write(sidecar);
+        KeyframeIndex read = KeyframeIndex.read(sidecar);
+
+        assertThat(read.durationSeconds()).isEqualTo(13.25);
+        assertThat(read.keyframeCount()).isEqualTo(KEYFRAMES.length);
+        assertThat(read.scenesIndexed()).isTrue();
+        assertThat(read.sceneChanges()).containsExactly(3.1, 8.4);
+        assertThat(read.keyframeAtOrBefore(5)).isEqualTo(4.5);
+        assertThat(read.byteOffsetAtOrBefore(5)).isEqualTo(2_500);
+        assertThat(read.segmentBoundaries(4)).containsExactly(index.segmentBoundaries(4));
+    }
+
+    @Test
+    void keyframesOnlyRoundTrip() throws IOException {
+        Path sidecar = directory.resolve("video.kfi");
+
+        new KeyframeIndex(10, new double[0], new long[0], new double[0], false).write(sidecar);
+        KeyframeIndex read = KeyframeIndex.read(sidecar);
+
+        assertThat(read.durationSeconds()).isEqualTo(10);
+        assertThat(read.keyframeCount()).isZero();
+        assertThat(read.scenesIndexed()).isFalse();
+        assertThat(read.sceneChanges()).isEmpty();
+    }
+
+    @Test
+    void rejectsForeignFile() throws IOException {
+        Path sidecar = directory.resolve("video.kfi");
+        Files.write(sidecar, new byte[]{'f', 't', 'y', 'p', 0, 0, 0, 1, 0, 0, 0, 0, 0, 0, 0, 0});
+
+        assertThatThrownBy(() -> KeyframeIndex.read(sidecar)).isInstanceOf(IOException.class);
+    }
+
+    @Test
+    void segmentsStartOnKeyframesAtLeastTargetApart() {
+        KeyframeIndex index = new KeyframeIndex(13.25, KEYFRAMES, new long[KEYFRAMES.length], new double[0], false);
+
+        assertThat(index.segmentBoundaries(4)).containsExactly(0, 4.5, 9.5);
+        assertThat(index.segmentBoundaries(2)).containsExactly(0, 2, 4.5, 7, 9.5, 12);
+        assertThat(index.segmentBoundaries(20)).containsExactly(0);
+    }
+
+    @Test
+    void segmentsNeverStartAtTheEnd() {
+        KeyframeIndex index = new KeyframeIndex(12, KEYFRAMES, new long[KEYFRAMES.length], new double[0], false);
+
+        assertThat(index.segmentBoundaries(2)).containsExactly(0, 2, 4.5, 7, 9.5);
+    }
+
+    @Test
+    void segmentsFallBackToFixedOffsetsWithoutKeyframes() {
+        KeyframeIndex index = new KeyframeIndex(13, new double[0], new long[0], new double[0], false);
+
+        assertThat(index.segmentBoundaries(6)).containsExactly(0, 6, 12);
+    }
+}